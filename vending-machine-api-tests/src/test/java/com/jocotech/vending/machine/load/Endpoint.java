@@ -0,0 +1,8 @@
+package com.jocotech.vending.machine.load;
+
+public enum Endpoint {
+  DEPOSIT,
+  BUY,
+  PRODUCTS,
+  LOGIN
+}
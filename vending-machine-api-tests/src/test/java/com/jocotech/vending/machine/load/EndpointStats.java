@@ -0,0 +1,42 @@
+package com.jocotech.vending.machine.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies (in microseconds) and failures of the requests sent to one endpoint.
+ */
+public class EndpointStats {
+  private final Histogram latencies = new ConcurrentHistogram(3);
+  private final LongAdder errors = new LongAdder();
+
+  public void record(long elapsedNanos, boolean success) {
+    latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+    if (!success) {
+      errors.increment();
+    }
+  }
+
+  public long count() {
+    return latencies.getTotalCount();
+  }
+
+  public long errors() {
+    return errors.sum();
+  }
+
+  public double errorRate() {
+    return count() == 0 ? 0 : (double) errors() / count();
+  }
+
+  public double percentileMillis(double percentile) {
+    return latencies.getValueAtPercentile(percentile) / 1000.0;
+  }
+
+  public double maxMillis() {
+    return latencies.getMaxValue() / 1000.0;
+  }
+}
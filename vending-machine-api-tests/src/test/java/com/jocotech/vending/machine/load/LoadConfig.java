@@ -0,0 +1,55 @@
+package com.jocotech.vending.machine.load;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Load test settings, read from system properties:
+ * <ul>
+ *   <li>{@code load.buyers}, {@code load.sellers}: number of users to provision, every buyer is a virtual user</li>
+ *   <li>{@code load.duration}, {@code load.warmup}: length of the measured run and of the unmeasured warmup, in seconds</li>
+ *   <li>{@code load.thinkTime}: pause of a virtual user between two requests, in milliseconds</li>
+ *   <li>{@code load.mix}: relative weights of the endpoints, e.g. {@code deposit:35,buy:35,products:25,login:5}</li>
+ *   <li>{@code load.slo.p99}, {@code load.slo.p999}, {@code load.slo.errorRate}: limits of every endpoint, which can
+ *   be overridden per endpoint, e.g. {@code load.slo.buy.p99}. Latencies are in milliseconds.</li>
+ * </ul>
+ */
+public record LoadConfig(int buyers, int sellers, Duration duration, Duration warmup, Duration thinkTime,
+                         Map<Endpoint, Integer> mix, Map<Endpoint, Slo> slos) {
+  private static final String DEFAULT_MIX = "deposit:35,buy:35,products:25,login:5";
+
+  public static LoadConfig fromSystemProperties() {
+    Map<Endpoint, Slo> slos = new EnumMap<>(Endpoint.class);
+    for (var endpoint : Endpoint.values()) {
+      var name = endpoint.name().toLowerCase(Locale.ROOT);
+      slos.put(endpoint, new Slo(
+          doubleProperty("load.slo." + name + ".p99", doubleProperty("load.slo.p99", null)),
+          doubleProperty("load.slo." + name + ".p999", doubleProperty("load.slo.p999", null)),
+          doubleProperty("load.slo." + name + ".errorRate", doubleProperty("load.slo.errorRate", null))));
+    }
+    return new LoadConfig(
+        Integer.getInteger("load.buyers", 20),
+        Integer.getInteger("load.sellers", 2),
+        Duration.ofSeconds(Integer.getInteger("load.duration", 30)),
+        Duration.ofSeconds(Integer.getInteger("load.warmup", 5)),
+        Duration.ofMillis(Integer.getInteger("load.thinkTime", 0)),
+        parseMix(System.getProperty("load.mix", DEFAULT_MIX)),
+        slos);
+  }
+
+  private static Map<Endpoint, Integer> parseMix(String mix) {
+    Map<Endpoint, Integer> weights = new EnumMap<>(Endpoint.class);
+    for (var entry : mix.split(",")) {
+      var parts = entry.split(":");
+      weights.put(Endpoint.valueOf(parts[0].trim().toUpperCase(Locale.ROOT)), Integer.parseInt(parts[1].trim()));
+    }
+    return weights;
+  }
+
+  private static Double doubleProperty(String name, Double defaultValue) {
+    var value = System.getProperty(name);
+    return value == null ? defaultValue : Double.valueOf(value);
+  }
+}
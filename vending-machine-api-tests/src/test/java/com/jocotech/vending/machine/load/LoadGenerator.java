@@ -0,0 +1,148 @@
+package com.jocotech.vending.machine.load;
+
+import com.jocotech.vending.machine.common.Hooks;
+import com.jocotech.vending.machine.common.RestAPIContext;
+import com.jocotech.vending.machine.common.RestSpecificationFactory;
+import io.restassured.RestAssured;
+import io.restassured.specification.RequestSpecification;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Closed-loop load test of a running API (see {@link RestSpecificationFactory} for its address). It provisions sellers
+ * with products and buyers, lets every buyer send a mix of requests for the configured duration, prints throughput and
+ * latency percentiles per endpoint and fails when a service level objective is missed.
+ * <p>
+ * Run it with {@code mvn verify -P load}, the settings are described in {@link LoadConfig}.
+ */
+public class LoadGenerator {
+  private static final int PRODUCTS_PER_SELLER = 5;
+  private static final int PRODUCT_STOCK = 1_000_000;
+
+  private final LoadConfig config;
+  private final Supplier<RequestSpecification> specificationFactory;
+
+  record CreateUserRequest(String username, String password, String role) {}
+  record CreateProductRequest(String productName, int cost, int amountAvailable) {}
+  record Credentials(String username, String password) {}
+
+  public LoadGenerator(LoadConfig config) {
+    this.config = config;
+    var restSpecificationFactory = new RestSpecificationFactory(new RestAPIContext());
+    this.specificationFactory = restSpecificationFactory::createRequestSpecification;
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    Hooks.setup();
+    var generator = new LoadGenerator(LoadConfig.fromSystemProperties());
+    var run = generator.run();
+    generator.report(run);
+    generator.verifySlos(run);
+  }
+
+  public LoadRun run() throws InterruptedException {
+    var productIds = new ArrayList<String>();
+    for (int i = 0; i < config.sellers(); i++) {
+      productIds.addAll(createProducts(createUser("ROLE_SELLER")));
+    }
+    var buyers = new ArrayList<Credentials>();
+    for (int i = 0; i < config.buyers(); i++) {
+      buyers.add(createUser("ROLE_BUYER"));
+    }
+    var schedule = schedule();
+    System.out.printf("Running %d virtual users for %ds after a %ds warmup%n", buyers.size(),
+        config.duration().toSeconds(), config.warmup().toSeconds());
+
+    var run = new LoadRun(config);
+    var executor = Executors.newFixedThreadPool(buyers.size());
+    for (var buyer : buyers) {
+      executor.execute(new VirtualUser(specificationFactory, buyer.username(), buyer.password(),
+          productIds, schedule, run));
+    }
+    executor.shutdown();
+    if (!executor.awaitTermination(run.remaining().toSeconds() + 60, TimeUnit.SECONDS)) {
+      executor.shutdownNow();
+    }
+    return run;
+  }
+
+  public void report(LoadRun run) {
+    var seconds = (double) config.duration().toSeconds();
+    var report = new StringBuilder(String.format(Locale.ROOT, "%n%-10s %10s %8s %10s %10s %10s %10s %10s%n",
+        "endpoint", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+    run.stats().forEach((endpoint, stats) -> report.append(String.format(Locale.ROOT,
+        "%-10s %10d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n",
+        endpoint.name().toLowerCase(Locale.ROOT), stats.count(), stats.errors(), stats.count() / seconds,
+        stats.percentileMillis(50), stats.percentileMillis(99), stats.percentileMillis(99.9), stats.maxMillis())));
+    System.out.print(report);
+  }
+
+  public void verifySlos(LoadRun run) {
+    var violations = new ArrayList<String>();
+    run.stats().forEach((endpoint, stats) -> {
+      var slo = config.slos().get(endpoint);
+      if (stats.count() == 0) {
+        return;
+      }
+      if (slo.p99Millis() != null && stats.percentileMillis(99) > slo.p99Millis()) {
+        violations.add(String.format(Locale.ROOT, "%s p99 %.2fms > %.2fms",
+            endpoint, stats.percentileMillis(99), slo.p99Millis()));
+      }
+      if (slo.p999Millis() != null && stats.percentileMillis(99.9) > slo.p999Millis()) {
+        violations.add(String.format(Locale.ROOT, "%s p99.9 %.2fms > %.2fms",
+            endpoint, stats.percentileMillis(99.9), slo.p999Millis()));
+      }
+      if (slo.maxErrorRate() != null && stats.errorRate() > slo.maxErrorRate()) {
+        violations.add(String.format(Locale.ROOT, "%s error rate %.4f > %.4f",
+            endpoint, stats.errorRate(), slo.maxErrorRate()));
+      }
+    });
+    if (!violations.isEmpty()) {
+      throw new IllegalStateException("Service level objectives missed: " + violations);
+    }
+  }
+
+  private Credentials createUser(String role) {
+    var user = new CreateUserRequest("load" + UUID.randomUUID(), UUID.randomUUID().toString(), role);
+    RestAssured.given(specificationFactory.get())
+        .body(user)
+        .post("/user")
+        .then().statusCode(200);
+    return new Credentials(user.username(), user.password());
+  }
+
+  private List<String> createProducts(Credentials seller) {
+    var token = RestAssured.given(specificationFactory.get())
+        .body(seller)
+        .post("/login")
+        .then().statusCode(200)
+        .extract().jsonPath().getString("accessToken");
+    var productIds = new ArrayList<String>();
+    for (int i = 0; i < PRODUCTS_PER_SELLER; i++) {
+      productIds.add(RestAssured.given(specificationFactory.get())
+          .auth().oauth2(token)
+          .body(new CreateProductRequest("Load " + UUID.randomUUID(), 5, PRODUCT_STOCK))
+          .post("/products")
+          .then().statusCode(201)
+          .extract().jsonPath().getString("id"));
+    }
+    return productIds;
+  }
+
+  // one slot per unit of weight, virtual users pick a random slot for every request
+  private Endpoint[] schedule() {
+    var slots = new ArrayList<Endpoint>();
+    config.mix().forEach((endpoint, weight) -> slots.addAll(Collections.nCopies(weight, endpoint)));
+    if (slots.isEmpty()) {
+      throw new IllegalArgumentException("load.mix must give a positive weight to at least one endpoint");
+    }
+    return slots.toArray(Endpoint[]::new);
+  }
+}
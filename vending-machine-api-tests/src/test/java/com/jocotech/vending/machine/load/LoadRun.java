@@ -0,0 +1,49 @@
+package com.jocotech.vending.machine.load;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Shared state of a running load test. Requests completed during the warmup are not recorded.
+ */
+public class LoadRun {
+  private final Map<Endpoint, EndpointStats> stats = new EnumMap<>(Endpoint.class);
+  private final long thinkTimeNanos;
+  private final long measureFrom;
+  private final long finishAt;
+
+  public LoadRun(LoadConfig config) {
+    for (var endpoint : Endpoint.values()) {
+      stats.put(endpoint, new EndpointStats());
+    }
+    this.thinkTimeNanos = config.thinkTime().toNanos();
+    this.measureFrom = System.nanoTime() + config.warmup().toNanos();
+    this.finishAt = measureFrom + config.duration().toNanos();
+  }
+
+  public boolean isFinished() {
+    return System.nanoTime() >= finishAt;
+  }
+
+  public void record(Endpoint endpoint, long elapsedNanos, boolean success) {
+    if (System.nanoTime() >= measureFrom) {
+      stats.get(endpoint).record(elapsedNanos, success);
+    }
+  }
+
+  public void thinkTime() {
+    if (thinkTimeNanos > 0) {
+      LockSupport.parkNanos(thinkTimeNanos);
+    }
+  }
+
+  public Duration remaining() {
+    return Duration.ofNanos(Math.max(0, finishAt - System.nanoTime()));
+  }
+
+  public Map<Endpoint, EndpointStats> stats() {
+    return stats;
+  }
+}
@@ -0,0 +1,7 @@
+package com.jocotech.vending.machine.load;
+
+/**
+ * Service level objectives of an endpoint, a null limit is not checked.
+ */
+public record Slo(Double p99Millis, Double p999Millis, Double maxErrorRate) {
+}
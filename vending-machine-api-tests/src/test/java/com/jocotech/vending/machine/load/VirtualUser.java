@@ -0,0 +1,80 @@
+package com.jocotech.vending.machine.load;
+
+import io.restassured.RestAssured;
+import io.restassured.response.Response;
+import io.restassured.specification.RequestSpecification;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * A logged in buyer sending requests in a closed loop: the next request is only sent when the previous one has been
+ * answered. Business rejections (e.g. not enough deposit to buy) are expected under load, only server errors and
+ * failed connections count as errors.
+ */
+@RequiredArgsConstructor
+public class VirtualUser implements Runnable {
+  private static final List<Integer> COINS = List.of(5, 10, 20, 50, 100);
+
+  private final Supplier<RequestSpecification> specificationFactory;
+  private final String username;
+  private final String password;
+  private final List<String> productIds;
+  private final Endpoint[] schedule;
+  private final LoadRun run;
+  private String token;
+
+  record DepositRequest(int coin) {}
+  record PurchaseRequest(String productId, int amount) {}
+  record LoginRequest(String username, String password) {}
+
+  @Override
+  public void run() {
+    login();
+    while (!run.isFinished()) {
+      var endpoint = schedule[ThreadLocalRandom.current().nextInt(schedule.length)];
+      var start = System.nanoTime();
+      boolean success;
+      try {
+        success = send(endpoint).statusCode() < 500;
+      } catch (Exception e) {
+        success = false;
+      }
+      run.record(endpoint, System.nanoTime() - start, success);
+      run.thinkTime();
+    }
+  }
+
+  private Response send(Endpoint endpoint) {
+    var random = ThreadLocalRandom.current();
+    return switch (endpoint) {
+      case DEPOSIT -> authenticated()
+          .body(new DepositRequest(COINS.get(random.nextInt(COINS.size()))))
+          .post("/deposit");
+      case BUY -> authenticated()
+          .body(new PurchaseRequest(productIds.get(random.nextInt(productIds.size())), 1))
+          .post("/buy");
+      case PRODUCTS -> authenticated()
+          .get("/products");
+      case LOGIN -> login();
+    };
+  }
+
+  private Response login() {
+    var response = RestAssured.given(specificationFactory.get())
+        .body(new LoginRequest(username, password))
+        .post("/login");
+    if (response.statusCode() == 200) {
+      token = response.jsonPath().getString("accessToken");
+    }
+    return response;
+  }
+
+  private RequestSpecification authenticated() {
+    return RestAssured.given(specificationFactory.get())
+        .headers(Map.of("Authorization", "Bearer " + token));
+  }
+}
@@ -16,7 +16,7 @@ public class UserStepDefs {
 
   record CreateUserRequest(String username, String password, String role) {}
   record LoginRequest(String username, String password) {}
-  record LoginResponse(String accessToken, Long expiresIn, String tokenType) {}
+  record LoginResponse(String accessToken, Long expiresIn, String tokenType, String refreshToken) {}
 
   @Given("a logged in {string}")
   public void aLoggedIn(String userType) {
@@ -0,0 +1,21 @@
+package com.jocotech.vendingmachine.common.error;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Catalog of the expected failures of the API, with the status and message they are reported with.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum DomainError {
+  INVALID_COIN(HttpStatus.BAD_REQUEST, "Please try with a different coin!"),
+  INVALID_PRODUCT(HttpStatus.NOT_FOUND, "Invalid product selected."),
+  INSUFFICIENT_PRODUCT(HttpStatus.CONFLICT, "Not enough products available for purchase."),
+  INSUFFICIENT_FUNDS(HttpStatus.PAYMENT_REQUIRED, "Insufficient funds, please deposit more coins."),
+  INVALID_USER(HttpStatus.UNAUTHORIZED, "Bad username or password!");
+
+  private final HttpStatus status;
+  private final String message;
+}
@@ -0,0 +1,18 @@
+package com.jocotech.vendingmachine.common.error;
+
+import lombok.Getter;
+
+/**
+ * Base of the expected failures of the API, e.g. a purchase without enough funds. They are part of normal operation
+ * and can be frequent, so they don't capture a stack trace and are reported with the precomputed response of their
+ * {@link DomainError} instead of being logged.
+ */
+public abstract class DomainException extends RuntimeException {
+  @Getter
+  private final DomainError error;
+
+  protected DomainException(DomainError error) {
+    super(error.getMessage(), null, false, false);
+    this.error = error;
+  }
+}
@@ -0,0 +1,41 @@
+package com.jocotech.vendingmachine.common.error;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Response bodies of the {@link DomainError}s, serialized once at startup, and the counters of their occurrences.
+ */
+@Component
+public class ErrorCatalog {
+  private final Map<DomainError, byte[]> bodies = new EnumMap<>(DomainError.class);
+  private final Map<DomainError, Counter> counters = new EnumMap<>(DomainError.class);
+
+  public ErrorCatalog(ObjectMapper objectMapper, MeterRegistry meterRegistry) throws JsonProcessingException {
+    for (var error : DomainError.values()) {
+      bodies.put(error, objectMapper.writeValueAsBytes(
+          new WebfluxGlobalErrorHandler.HttpError(error.name(), error.getMessage())));
+      counters.put(error, Counter.builder("http.domain.errors")
+          .description("Expected failures reported to clients")
+          .tag("error", error.name())
+          .register(meterRegistry));
+    }
+  }
+
+  /**
+   * @return the serialized response body, callers must not modify it
+   */
+  byte[] body(DomainError error) {
+    return bodies.get(error);
+  }
+
+  void count(DomainError error) {
+    counters.get(error).increment();
+  }
+}
@@ -1,9 +1,8 @@
 package com.jocotech.vendingmachine.common.error;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.jocotech.vendingmachine.common.security.InvalidUserException;
-import com.jocotech.vendingmachine.machine.InvalidCoinException;
 import io.jsonwebtoken.JwtException;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
@@ -13,6 +12,7 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.core.annotation.Order;
 import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.server.reactive.ServerHttpResponse;
@@ -26,27 +26,43 @@ import reactor.core.publisher.Mono;
 @Order(-2)
 public class WebfluxGlobalErrorHandler implements ErrorWebExceptionHandler {
 
-  record HttpError(String message) {
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  record HttpError(String code, String message) {
   }
 
   private final ObjectMapper objectMapper;
+  private final ErrorCatalog errorCatalog;
 
+  /**
+   * @should report a domain exception with its precomputed response
+   * @should report an unknown exception as internal server error
+   */
   @NonNull
   @Override
   public Mono<Void> handle(ServerWebExchange serverWebExchange, @NonNull Throwable t) {
     ServerHttpResponse response = serverWebExchange.getResponse();
     response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
     DataBufferFactory bufferFactory = response.bufferFactory();
-    DataBuffer dataBuffer = getExceptionMessage(bufferFactory, t.getMessage());
 
+    // expected failures, counted instead of logged
+    if (t instanceof DomainException d) {
+      errorCatalog.count(d.getError());
+      response.setStatusCode(d.getError().getStatus());
+      return response.writeWith(Mono.just(bufferFactory.wrap(errorCatalog.body(d.getError()))));
+    }
+
+    DataBuffer dataBuffer = getExceptionMessage(bufferFactory, t.getMessage());
     // handled exceptions
-    if (t instanceof JwtException || t instanceof InvalidUserException) {
+    if (t instanceof JwtException) {
       // error decoding the JWT Token of the user
       response.setStatusCode(HttpStatus.UNAUTHORIZED);
     } else if (t instanceof ResponseStatusException r) {
       response.setStatusCode(r.getStatusCode());
-    } else if (t instanceof InvalidCoinException || t instanceof IllegalArgumentException) {
+    } else if (t instanceof IllegalArgumentException) {
       response.setStatusCode(HttpStatus.BAD_REQUEST);
+    } else if (t instanceof OptimisticLockingFailureException) {
+      // still conflicting after the retries
+      response.setStatusCode(HttpStatus.CONFLICT);
     } else {
       // unknown exceptions
       log.error("Caught an unknown exception:", t);
@@ -60,7 +76,7 @@ public class WebfluxGlobalErrorHandler implements ErrorWebExceptionHandler {
     DataBuffer dataBuffer;
     try {
       dataBuffer = bufferFactory
-          .wrap(objectMapper.writeValueAsBytes(new HttpError(message)));
+          .wrap(objectMapper.writeValueAsBytes(new HttpError(null, message)));
     } catch (JsonProcessingException e) {
       dataBuffer = bufferFactory.wrap("".getBytes());
     }
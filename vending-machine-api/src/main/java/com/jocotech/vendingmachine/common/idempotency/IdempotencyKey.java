@@ -0,0 +1,25 @@
+package com.jocotech.vendingmachine.common.idempotency;
+
+import lombok.Builder;
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * A request made with an {@code Idempotency-Key} header. The response is null while the request is being processed.
+ */
+@Data
+@Builder(toBuilder = true)
+@Table("idempotency_key")
+public class IdempotencyKey {
+
+  @Id
+  private UUID id;
+  // SHA-256 of the request body, a key can't be reused for a different request
+  private String requestHash;
+  private String response;
+  private LocalDateTime createdDate;
+}
@@ -0,0 +1,38 @@
+package com.jocotech.vendingmachine.common.idempotency;
+
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@Repository
+public interface IdempotencyKeyRepository extends ReactiveCrudRepository<IdempotencyKey, UUID> {
+
+  /**
+   * Inserts the key with the hash of its request and without a response. Completes empty if the key already exists.
+   */
+  @Query("""
+      INSERT INTO idempotency_key (id, request_hash, created_date)
+      VALUES (:id, :requestHash, :createdDate)
+      ON CONFLICT DO NOTHING
+      RETURNING id""")
+  Mono<UUID> claim(UUID id, String requestHash, LocalDateTime createdDate);
+
+  /**
+   * Stores the response of the claimed key. Completes empty if the key does not exist.
+   */
+  @Query("""
+      UPDATE idempotency_key
+      SET response = :response
+      WHERE id = :id
+      RETURNING id""")
+  Mono<UUID> complete(UUID id, String response);
+
+  @Modifying
+  @Query("DELETE FROM idempotency_key WHERE created_date < :before")
+  Mono<Integer> deleteCreatedBefore(LocalDateTime before);
+}
@@ -0,0 +1,198 @@
+package com.jocotech.vendingmachine.common.idempotency;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.jocotech.vendingmachine.common.security.login.LoginService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.UUID;
+
+/**
+ * Runs requests carrying an {@code Idempotency-Key} header at most once per user, operation and key. The first request
+ * claims the key in the {@code idempotency_key} table and stores its response there, repeated requests get the stored
+ * response without running the operation again. Recent responses are also kept in a bounded cache, so retries are
+ * served from memory. A failed request releases its key, so it can be retried. Keys expire after the configured ttl.
+ * <p>
+ * The key is stored with a hash of the request body, reusing a key for a different request is answered with 422
+ * instead of replaying the response of the first one.
+ */
+@Slf4j
+@Component
+public class IdempotentRequests {
+  private final IdempotencyKeyRepository idempotencyKeyRepository;
+  private final LoginService loginService;
+  private final ObjectMapper objectMapper;
+  private final Duration ttl;
+  private final Cache<UUID, Stored> responses;
+
+  private final Counter executed;
+  private final Counter replayed;
+  private final Counter conflicts;
+  private final Counter mismatches;
+
+  private record Stored(String requestHash, Object response) {}
+
+  public IdempotentRequests(IdempotencyKeyRepository idempotencyKeyRepository,
+                            LoginService loginService,
+                            ObjectMapper objectMapper,
+                            @Value("${idempotency.cache.maximum-size}") long maximumSize,
+                            @Value("${idempotency.ttl}") long ttl,
+                            MeterRegistry meterRegistry) {
+    this.idempotencyKeyRepository = idempotencyKeyRepository;
+    this.loginService = loginService;
+    this.objectMapper = objectMapper;
+    this.ttl = Duration.ofSeconds(ttl);
+    this.responses = Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(this.ttl)
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, responses, "idempotency");
+    this.executed = meterRegistry.counter("idempotency.requests", "result", "executed");
+    this.replayed = meterRegistry.counter("idempotency.requests", "result", "replayed");
+    this.conflicts = meterRegistry.counter("idempotency.requests", "result", "conflict");
+    this.mismatches = meterRegistry.counter("idempotency.requests", "result", "mismatch");
+  }
+
+  /**
+   * @param key the {@code Idempotency-Key} header, the request is run as is if it is null
+   * @param operation name of the operation, the same key can be used for different operations
+   * @param requestBody body of the request, it must be serializable to JSON
+   * @param type type of the response, it must be serializable to and from JSON
+   * @should run the request if there is no key
+   * @should run the request and store its response if the key is new
+   * @should replay the cached response without running the request again
+   * @should replay the stored response if it is not cached
+   * @should return conflict if the request with the key is still in progress
+   * @should release the key if the request fails
+   * @should release the key if the request completes empty
+   * @should release the key if the request is cancelled
+   * @should reject a cached key reused with a different request
+   * @should reject a stored key reused with a different request
+   */
+  public <T> Mono<T> execute(String key, String operation, Object requestBody, Class<T> type, Mono<T> request) {
+    if (key == null) {
+      return request;
+    }
+    return loginService.getCurrentUserId()
+        .map(userId -> keyId(userId, operation, key))
+        .flatMap(id -> {
+          var requestHash = requestHash(requestBody);
+          var cached = responses.getIfPresent(id);
+          if (cached != null) {
+            if (!cached.requestHash().equals(requestHash)) {
+              return Mono.error(this::mismatch);
+            }
+            log.debug("Replaying cached response of idempotency key: {}", key);
+            replayed.increment();
+            return Mono.just(type.cast(cached.response()));
+          }
+          return idempotencyKeyRepository.claim(id, requestHash, LocalDateTime.now())
+              .hasElement()
+              .flatMap(claimed -> claimed
+                  ? executeClaimed(id, requestHash, request)
+                  : replay(id, key, requestHash, type));
+        });
+  }
+
+  // a request that fails, completes empty or is cancelled (e.g. the client disconnected) has no response to replay,
+  // its key is released so it can be retried
+  private <T> Mono<T> executeClaimed(UUID id, String requestHash, Mono<T> request) {
+    return request
+        .onErrorResume(e -> release(id).then(Mono.error(e)))
+        .switchIfEmpty(release(id).then(Mono.empty()))
+        .doOnCancel(() -> release(id).subscribe())
+        .flatMap(response -> {
+          executed.increment();
+          responses.put(id, new Stored(requestHash, response));
+          return store(id, response).thenReturn(response);
+        });
+  }
+
+  private <T> Mono<T> replay(UUID id, String key, String requestHash, Class<T> type) {
+    return idempotencyKeyRepository.findById(id)
+        .flatMap(stored -> requestHash.equals(stored.getRequestHash())
+            ? Mono.just(stored)
+            : Mono.error(this::mismatch))
+        .filter(stored -> stored.getResponse() != null)
+        .map(stored -> deserialize(stored.getResponse(), type))
+        .doOnNext(response -> {
+          log.debug("Replaying stored response of idempotency key: {}", key);
+          replayed.increment();
+          responses.put(id, new Stored(requestHash, response));
+        })
+        .switchIfEmpty(Mono.error(() -> {
+          conflicts.increment();
+          return new ResponseStatusException(HttpStatus.CONFLICT,
+              "A request with the same Idempotency-Key is in progress");
+        }));
+  }
+
+  private ResponseStatusException mismatch() {
+    mismatches.increment();
+    return new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY,
+        "The Idempotency-Key was already used with a different request");
+  }
+
+  // the operation has already been done, so the key stays claimed even if its response can't be stored
+  private Mono<Void> store(UUID id, Object response) {
+    return Mono.fromCallable(() -> objectMapper.writeValueAsString(response))
+        .flatMap(json -> idempotencyKeyRepository.complete(id, json))
+        .doOnError(e -> log.error("Failed to store response of idempotency key: {}", id, e))
+        .onErrorResume(e -> Mono.empty())
+        .then();
+  }
+
+  private Mono<Void> release(UUID id) {
+    return idempotencyKeyRepository.deleteById(id)
+        .doOnError(e -> log.error("Failed to release idempotency key: {}", id, e))
+        .onErrorResume(e -> Mono.empty());
+  }
+
+  private <T> T deserialize(String json, Class<T> type) {
+    try {
+      return objectMapper.readValue(json, type);
+    } catch (Exception e) {
+      throw new IllegalStateException("Stored response can't be read as " + type.getSimpleName(), e);
+    }
+  }
+
+  private String requestHash(Object requestBody) {
+    try {
+      var digest = MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(requestBody));
+      return HexFormat.of().formatHex(digest);
+    } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+      throw new IllegalStateException("Request body can't be hashed", e);
+    }
+  }
+
+  private static UUID keyId(UUID userId, String operation, String key) {
+    return UUID.nameUUIDFromBytes((userId + ":" + operation + ":" + key).getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Scheduled(fixedDelayString = "${idempotency.cleanup-interval}")
+  public void deleteExpired() {
+    idempotencyKeyRepository.deleteCreatedBefore(LocalDateTime.now().minus(ttl))
+        .doOnNext(deleted -> log.debug("Deleted {} expired idempotency keys", deleted))
+        .doOnError(e -> log.error("Failed to delete expired idempotency keys", e))
+        .onErrorResume(e -> Mono.empty())
+        .subscribe();
+  }
+}
@@ -0,0 +1,78 @@
+package com.jocotech.vendingmachine.common.idempotency;
+
+import com.jocotech.vendingmachine.common.memory.InMemoryCrudRepository;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.UUID;
+
+/**
+ * {@link IdempotencyKeyRepository} of the {@code in-memory} profile.
+ */
+@Repository
+@Profile("in-memory")
+public class InMemoryIdempotencyKeyRepository extends InMemoryCrudRepository<IdempotencyKey>
+    implements IdempotencyKeyRepository {
+
+  public InMemoryIdempotencyKeyRepository() {
+    super(Comparator.naturalOrder());
+  }
+
+  @Override
+  public Mono<UUID> claim(UUID id, String requestHash, LocalDateTime createdDate) {
+    return Mono.fromSupplier(() -> entities.putIfAbsent(id, IdempotencyKey.builder()
+            .id(id)
+            .requestHash(requestHash)
+            .createdDate(createdDate)
+            .build()) == null ? id : null);
+  }
+
+  @Override
+  public Mono<UUID> complete(UUID id, String response) {
+    return update(id, key -> key.toBuilder().response(response).build(), key -> key)
+        .map(IdempotencyKey::getId);
+  }
+
+  @Override
+  public Mono<Integer> deleteCreatedBefore(LocalDateTime before) {
+    return Mono.fromSupplier(() -> {
+      var expired = entities.values().stream()
+          .filter(key -> key.getCreatedDate().isBefore(before))
+          .map(IdempotencyKey::getId)
+          .toList();
+      expired.forEach(entities::remove);
+      return expired.size();
+    });
+  }
+
+  @Override
+  protected UUID idOf(IdempotencyKey key) {
+    return key.getId();
+  }
+
+  @Override
+  protected Long versionOf(IdempotencyKey key) {
+    return null;
+  }
+
+  @Override
+  protected IdempotencyKey copy(IdempotencyKey key) {
+    return key.toBuilder().build();
+  }
+
+  @Override
+  protected IdempotencyKey prepareForSave(IdempotencyKey key, IdempotencyKey existing, LocalDateTime now) {
+    return key.toBuilder()
+        .id(existing == null ? UUID.randomUUID() : existing.getId())
+        .createdDate(existing == null ? now : existing.getCreatedDate())
+        .build();
+  }
+
+  @Override
+  protected String uniqueKeyOf(IdempotencyKey key) {
+    return null;
+  }
+}
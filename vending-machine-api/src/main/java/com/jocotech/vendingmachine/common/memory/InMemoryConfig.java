@@ -0,0 +1,16 @@
+package com.jocotech.vendingmachine.common.memory;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.transaction.ReactiveTransactionManager;
+
+@Configuration
+@Profile("in-memory")
+public class InMemoryConfig {
+
+  @Bean
+  public ReactiveTransactionManager transactionManager() {
+    return new InMemoryTransactionManager();
+  }
+}
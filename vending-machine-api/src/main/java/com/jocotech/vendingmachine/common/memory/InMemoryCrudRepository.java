@@ -0,0 +1,248 @@
+package com.jocotech.vendingmachine.common.memory;
+
+import com.jocotech.vendingmachine.common.transaction.TransactionCallbacks;
+import org.reactivestreams.Publisher;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * Base of the repositories of the {@code in-memory} profile. Entities are kept in a concurrent map by id and copied on
+ * the way in and out, so callers can modify what they read just like rows loaded from the database. Saves assign the
+ * id, the audit dates and the version and enforce the unique column of the table. Saving an entity read before the
+ * last change of its row fails with an {@link OptimisticLockingFailureException}, like an {@code @Version} update.
+ * Writes made inside a transaction are undone if it rolls back, but there is no isolation between concurrent
+ * transactions.
+ */
+public abstract class InMemoryCrudRepository<T> implements ReactiveCrudRepository<T, UUID> {
+  protected final ConcurrentNavigableMap<UUID, T> entities;
+  private final Map<String, UUID> uniqueKeys = new ConcurrentHashMap<>();
+  // saves and deletes maintain the unique index together with the entities, single row updates do not need it
+  private final Object writeLock = new Object();
+
+  protected InMemoryCrudRepository(Comparator<UUID> idOrder) {
+    this.entities = new ConcurrentSkipListMap<>(idOrder);
+  }
+
+  protected abstract UUID idOf(T entity);
+
+  protected abstract T copy(T entity);
+
+  protected abstract Long versionOf(T entity);
+
+  /**
+   * @return a copy of the entity to store, with its id, audit dates and next version set
+   */
+  protected abstract T prepareForSave(T entity, T existing, LocalDateTime now);
+
+  /**
+   * @return the value of the unique column of the entity, or null if it has none
+   */
+  protected abstract String uniqueKeyOf(T entity);
+
+  /**
+   * Replaces the entity with the result of {@code update} in a single atomic step, like a guarded {@code UPDATE}
+   * statement. The result must have the next version. A null result leaves the entity unchanged. If the surrounding
+   * transaction rolls back, {@code undo} is applied to the entity as it is then. Both functions may be applied more
+   * than once under contention, only the last result is kept, so they must not have side effects.
+   *
+   * @return the updated entity, empty if it does not exist or was left unchanged
+   */
+  protected Mono<T> update(UUID id, UnaryOperator<T> update, UnaryOperator<T> undo) {
+    return Mono.fromSupplier(() -> {
+          var updated = new AtomicReference<T>();
+          entities.computeIfPresent(id, (key, entity) -> {
+            updated.set(update.apply(entity));
+            return updated.get() == null ? entity : updated.get();
+          });
+          return updated.get();
+        })
+        .flatMap(updated -> TransactionCallbacks.onRollback(() -> entities.computeIfPresent(id,
+                (key, entity) -> undo.apply(entity)))
+            .thenReturn(copy(updated)));
+  }
+
+  protected Mono<T> findByUniqueKey(String key) {
+    return Mono.fromSupplier(() -> uniqueKeys.get(key))
+        .flatMap(this::findById);
+  }
+
+  /**
+   * @should assign the id, the audit dates and the first version to a new entity
+   * @should return an error if the entity was changed after it was read
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public <S extends T> Mono<S> save(S entity) {
+    return Mono.fromCallable(() -> store(entity))
+        .flatMap(stored -> TransactionCallbacks.onRollback(() -> restore(idOf(stored.saved()), stored.previous()))
+            .thenReturn((S) copy(stored.saved())));
+  }
+
+  @Override
+  public <S extends T> Flux<S> saveAll(Iterable<S> entities) {
+    return Flux.fromIterable(entities).concatMap(this::save);
+  }
+
+  @Override
+  public <S extends T> Flux<S> saveAll(Publisher<S> entityStream) {
+    return Flux.from(entityStream).concatMap(this::save);
+  }
+
+  @Override
+  public Mono<T> findById(UUID id) {
+    return Mono.fromSupplier(() -> entities.get(id))
+        .map(this::copy);
+  }
+
+  @Override
+  public Mono<T> findById(Publisher<UUID> id) {
+    return Mono.from(id).flatMap(this::findById);
+  }
+
+  @Override
+  public Mono<Boolean> existsById(UUID id) {
+    return Mono.fromSupplier(() -> entities.containsKey(id));
+  }
+
+  @Override
+  public Mono<Boolean> existsById(Publisher<UUID> id) {
+    return Mono.from(id).flatMap(this::existsById);
+  }
+
+  @Override
+  public Flux<T> findAll() {
+    return Flux.defer(() -> Flux.fromIterable(entities.values()))
+        .map(this::copy);
+  }
+
+  @Override
+  public Flux<T> findAllById(Iterable<UUID> ids) {
+    return Flux.fromIterable(ids).concatMap(this::findById);
+  }
+
+  @Override
+  public Flux<T> findAllById(Publisher<UUID> idStream) {
+    return Flux.from(idStream).concatMap(this::findById);
+  }
+
+  @Override
+  public Mono<Long> count() {
+    return Mono.fromSupplier(() -> (long) entities.size());
+  }
+
+  @Override
+  public Mono<Void> deleteById(UUID id) {
+    return Mono.fromSupplier(() -> remove(id))
+        .flatMap(removed -> TransactionCallbacks.onRollback(() -> restore(id, removed)));
+  }
+
+  @Override
+  public Mono<Void> deleteById(Publisher<UUID> id) {
+    return Mono.from(id).flatMap(this::deleteById);
+  }
+
+  @Override
+  public Mono<Void> delete(T entity) {
+    return deleteById(idOf(entity));
+  }
+
+  @Override
+  public Mono<Void> deleteAllById(Iterable<? extends UUID> ids) {
+    return Flux.fromIterable(ids).concatMap(this::deleteById).then();
+  }
+
+  @Override
+  public Mono<Void> deleteAll(Iterable<? extends T> entities) {
+    return Flux.fromIterable(entities).concatMap(this::delete).then();
+  }
+
+  @Override
+  public Mono<Void> deleteAll(Publisher<? extends T> entityStream) {
+    return Flux.from(entityStream).concatMap(this::delete).then();
+  }
+
+  @Override
+  public Mono<Void> deleteAll() {
+    return Flux.defer(() -> Flux.fromIterable(entities.keySet())).concatMap(this::deleteById).then();
+  }
+
+  private Stored<T> store(T entity) {
+    synchronized (writeLock) {
+      var id = idOf(entity);
+      var existing = id == null ? null : entities.get(id);
+      if (id != null && existing == null) {
+        throw new TransientDataAccessResourceException(
+            "Failed to update table; Row with Id [" + id + "] does not exist");
+      }
+      if (existing != null && !Objects.equals(versionOf(entity), versionOf(existing))) {
+        throw versionMismatch(id);
+      }
+      var saved = prepareForSave(entity, existing, LocalDateTime.now());
+      var savedId = idOf(saved);
+      var key = uniqueKeyOf(saved);
+      var owner = key == null ? null : uniqueKeys.get(key);
+      if (owner != null && !owner.equals(savedId)) {
+        throw new DuplicateKeyException("Duplicate key value [" + key + "] violates unique constraint");
+      }
+      if (existing != null && !Objects.equals(uniqueKeyOf(existing), key)) {
+        uniqueKeys.remove(uniqueKeyOf(existing));
+      }
+      if (key != null) {
+        uniqueKeys.put(key, savedId);
+      }
+      // single row updates don't take the lock, one may have changed the entity since it was read
+      if (existing == null) {
+        entities.put(savedId, saved);
+      } else if (!entities.replace(savedId, existing, saved)) {
+        throw versionMismatch(savedId);
+      }
+      return new Stored<>(existing, saved);
+    }
+  }
+
+  private static OptimisticLockingFailureException versionMismatch(UUID id) {
+    return new OptimisticLockingFailureException("Failed to update table; Version does not match for row with Id ["
+        + id + "]");
+  }
+
+  private T remove(UUID id) {
+    synchronized (writeLock) {
+      var removed = entities.remove(id);
+      if (removed != null && uniqueKeyOf(removed) != null) {
+        uniqueKeys.remove(uniqueKeyOf(removed));
+      }
+      return removed;
+    }
+  }
+
+  // puts back what was there before a rolled back save or delete, or removes what the save created
+  private void restore(UUID id, T previous) {
+    synchronized (writeLock) {
+      remove(id);
+      if (previous != null) {
+        entities.put(id, previous);
+        if (uniqueKeyOf(previous) != null) {
+          uniqueKeys.put(uniqueKeyOf(previous), id);
+        }
+      }
+    }
+  }
+
+  private record Stored<T>(T previous, T saved) {
+  }
+}
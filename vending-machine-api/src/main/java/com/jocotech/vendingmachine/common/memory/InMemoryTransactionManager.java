@@ -0,0 +1,50 @@
+package com.jocotech.vendingmachine.common.memory;
+
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.reactive.AbstractReactiveTransactionManager;
+import org.springframework.transaction.reactive.GenericReactiveTransaction;
+import org.springframework.transaction.reactive.TransactionSynchronizationManager;
+import reactor.core.publisher.Mono;
+
+/**
+ * Transaction manager of the in-memory repositories. It has no resources to commit or roll back, it only drives the
+ * transaction synchronizations: the after commit callbacks and the undo actions the repositories register for a
+ * rollback. Nested transactional calls join the outermost transaction.
+ */
+public class InMemoryTransactionManager extends AbstractReactiveTransactionManager {
+
+  // the transaction object only tells whether a transaction is already running in the subscriber context
+  @Override
+  protected Object doGetTransaction(TransactionSynchronizationManager synchronizationManager) {
+    return synchronizationManager.hasResource(this);
+  }
+
+  @Override
+  protected boolean isExistingTransaction(Object transaction) {
+    return (Boolean) transaction;
+  }
+
+  @Override
+  protected Mono<Void> doBegin(TransactionSynchronizationManager synchronizationManager, Object transaction,
+                               TransactionDefinition definition) {
+    return Mono.fromRunnable(() -> synchronizationManager.bindResource(this, Boolean.TRUE));
+  }
+
+  @Override
+  protected Mono<Void> doCommit(TransactionSynchronizationManager synchronizationManager,
+                                GenericReactiveTransaction status) {
+    return Mono.empty();
+  }
+
+  @Override
+  protected Mono<Void> doRollback(TransactionSynchronizationManager synchronizationManager,
+                                  GenericReactiveTransaction status) {
+    return Mono.empty();
+  }
+
+  @Override
+  protected Mono<Void> doCleanupAfterCompletion(TransactionSynchronizationManager synchronizationManager,
+                                                Object transaction) {
+    return Mono.fromRunnable(() -> synchronizationManager.unbindResourceIfPossible(this));
+  }
+}
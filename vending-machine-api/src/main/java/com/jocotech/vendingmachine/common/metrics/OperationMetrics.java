@@ -0,0 +1,67 @@
+package com.jocotech.vendingmachine.common.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Times reactive operations from subscription until they terminate. Every timer is tagged with the outcome: success,
+ * the simple name of one of our own exceptions (e.g. InsufficientFundsException), error for any other exception, or
+ * cancelled. A timer also counts its recordings, so it gives the rate of every outcome as well.
+ */
+@Component
+@RequiredArgsConstructor
+public class OperationMetrics {
+  private static final String APPLICATION_PACKAGE = "com.jocotech.";
+
+  private final MeterRegistry meterRegistry;
+
+  /**
+   * @should record a successful operation
+   * @should tag the outcome with the name of an application exception
+   * @should tag the outcome of any other exception as error
+   */
+  public <T> Mono<T> timed(Mono<T> operation, String name, Tags tags) {
+    return Mono.defer(() -> {
+      var sample = new Sample(Timer.start(meterRegistry));
+      return operation
+          .doOnSuccess(value -> stop(sample, name, tags, "success"))
+          .doOnError(e -> stop(sample, name, tags, outcome(e)))
+          .doOnCancel(() -> stop(sample, name, tags, "cancelled"));
+    });
+  }
+
+  public <T> Flux<T> timed(Flux<T> operation, String name, Tags tags) {
+    return Flux.defer(() -> {
+      var sample = new Sample(Timer.start(meterRegistry));
+      return operation
+          .doOnComplete(() -> stop(sample, name, tags, "success"))
+          .doOnError(e -> stop(sample, name, tags, outcome(e)))
+          .doOnCancel(() -> stop(sample, name, tags, "cancelled"));
+    });
+  }
+
+  // a Mono can still be cancelled after it has emitted its value, only the first outcome is recorded
+  private void stop(Sample sample, String name, Tags tags, String outcome) {
+    if (sample.stopped().compareAndSet(false, true)) {
+      sample.sample().stop(meterRegistry.timer(name, tags.and("outcome", outcome)));
+    }
+  }
+
+  private record Sample(Timer.Sample sample, AtomicBoolean stopped) {
+    Sample(Timer.Sample sample) {
+      this(sample, new AtomicBoolean());
+    }
+  }
+
+  // only our own exceptions are named, so the number of outcomes stays bounded
+  static String outcome(Throwable e) {
+    return e.getClass().getName().startsWith(APPLICATION_PACKAGE) ? e.getClass().getSimpleName() : "error";
+  }
+}
@@ -0,0 +1,60 @@
+package com.jocotech.vendingmachine.common.metrics;
+
+import io.micrometer.core.instrument.Tags;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.repository.Repository;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+
+/**
+ * Wraps every repository in a proxy that times its reactive calls as {@code repository.calls}, tagged with the
+ * repository, the method and the outcome.
+ */
+@Component
+public class RepositoryMetricsPostProcessor implements BeanPostProcessor {
+  private static final String METRIC_NAME = "repository.calls";
+
+  // resolved on the first call, post processors are created before the meter registry
+  private final ObjectProvider<OperationMetrics> operationMetrics;
+
+  public RepositoryMetricsPostProcessor(ObjectProvider<OperationMetrics> operationMetrics) {
+    this.operationMetrics = operationMetrics;
+  }
+
+  // the proxy implements only the repository interfaces, named after the application's own one, e.g. ProductRepository
+  @Override
+  public Object postProcessAfterInitialization(Object bean, String beanName) {
+    if (!(bean instanceof Repository<?, ?>)) {
+      return bean;
+    }
+    var repositoryInterfaces = Arrays.stream(ClassUtils.getAllInterfaces(bean))
+        .filter(Repository.class::isAssignableFrom)
+        .toArray(Class<?>[]::new);
+    var repository = Arrays.stream(repositoryInterfaces)
+        .filter(type -> !type.getName().startsWith("org.springframework."))
+        .findFirst()
+        .map(Class::getSimpleName)
+        .orElse(bean.getClass().getSimpleName());
+    var proxyFactory = new ProxyFactory(repositoryInterfaces);
+    proxyFactory.setTarget(bean);
+    proxyFactory.addAdvice((MethodInterceptor) invocation -> {
+      var result = invocation.proceed();
+      var tags = Tags.of("repository", repository, "method", invocation.getMethod().getName());
+      if (result instanceof Mono<?> mono) {
+        return operationMetrics.getObject().timed(mono, METRIC_NAME, tags);
+      }
+      if (result instanceof Flux<?> flux) {
+        return operationMetrics.getObject().timed(flux, METRIC_NAME, tags);
+      }
+      return result;
+    });
+    return proxyFactory.getProxy();
+  }
+}
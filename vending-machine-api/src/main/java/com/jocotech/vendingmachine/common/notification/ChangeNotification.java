@@ -0,0 +1,30 @@
+package com.jocotech.vendingmachine.common.notification;
+
+import java.util.UUID;
+
+/**
+ * Application event of a change made by another instance of the API. Listeners evict or refresh their cached copy of
+ * the entity, or everything they cache when the notification is a resync.
+ *
+ * @param entity the kind of entity that changed, null for a resync
+ * @param id     id of the entity that changed, null for a resync
+ */
+public record ChangeNotification(String entity, UUID id) {
+  public static final String PRODUCT = "product";
+  public static final String USER = "user";
+
+  /**
+   * Notifications may have been missed, e.g. while the listening connection was down.
+   */
+  public static ChangeNotification resync() {
+    return new ChangeNotification(null, null);
+  }
+
+  public boolean isResync() {
+    return entity == null;
+  }
+
+  public boolean isAbout(String entity) {
+    return entity.equals(this.entity);
+  }
+}
@@ -0,0 +1,157 @@
+package com.jocotech.vendingmachine.common.notification;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.postgresql.api.Notification;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.postgresql.api.PostgresqlResult;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Wrapped;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Keeps the caches of several API instances sharing one database in step, using Postgres {@code LISTEN/NOTIFY}
+ * instead of a message broker. Writes publish a {@code <entity>:<id>:<node>} payload on the {@link #CHANNEL} channel
+ * in their own transaction, so it is only delivered once they commit. Every instance listens on a dedicated connection
+ * outside the pool and republishes the notifications of the other instances as {@link ChangeNotification} application
+ * events. Notifications sent while an instance is not listening are lost, so every time the listening connection is
+ * (re)established a resync is published and the caches are reloaded.
+ */
+@Slf4j
+@Component
+@Profile("!in-memory")
+@ConditionalOnProperty(name = "persistence.change-notifications.enabled", havingValue = "true")
+public class ChangeNotifications implements DisposableBean {
+  static final String CHANNEL = "machine_changes";
+
+  private final DatabaseClient databaseClient;
+  private final ConnectionFactory connectionFactory;
+  private final ApplicationEventPublisher eventPublisher;
+  private final Duration keepAliveInterval;
+  // notifications of this instance come back to it too, its own caches are already up to date
+  private final String nodeId = UUID.randomUUID().toString().substring(0, 8);
+  private final Counter received;
+  private final Counter reconnects;
+  private volatile Disposable listening;
+
+  public ChangeNotifications(DatabaseClient databaseClient,
+                             ConnectionFactory connectionFactory,
+                             ApplicationEventPublisher eventPublisher,
+                             @Value("${persistence.change-notifications.keep-alive-interval}") long keepAliveInterval,
+                             MeterRegistry meterRegistry) {
+    this.databaseClient = databaseClient;
+    this.connectionFactory = connectionFactory;
+    this.eventPublisher = eventPublisher;
+    this.keepAliveInterval = Duration.ofMillis(keepAliveInterval);
+    this.received = meterRegistry.counter("persistence.change.notifications.received");
+    this.reconnects = meterRegistry.counter("persistence.change.notifications.reconnects");
+  }
+
+  /**
+   * Notifies the other instances that the entity changed, once the surrounding transaction commits.
+   */
+  public Mono<Void> publish(String entity, UUID id) {
+    return databaseClient.sql("SELECT pg_notify(:channel, :payload)")
+        .bind("channel", CHANNEL)
+        .bind("payload", entity + ":" + id + ":" + nodeId)
+        .then();
+  }
+
+  /**
+   * Notifies the other instances that the entities changed, with a single statement.
+   */
+  public Mono<Void> publishAll(String entity, Collection<UUID> ids) {
+    if (ids.isEmpty()) {
+      return Mono.empty();
+    }
+    return databaseClient.sql("SELECT pg_notify(:channel, payload) FROM unnest(CAST(:payloads AS text[])) AS payload")
+        .bind("channel", CHANNEL)
+        .bind("payloads", ids.stream().map(id -> entity + ":" + id + ":" + nodeId).toArray(String[]::new))
+        .then();
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void listen() {
+    listening = Flux.usingWhen(connect(), this::notifications, Connection::close)
+        // the server closed the connection, listen again
+        .concatWith(Mono.error(() -> new IllegalStateException("Notification connection closed")))
+        .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+            .maxBackoff(Duration.ofSeconds(30))
+            .transientErrors(true)
+            .doBeforeRetry(signal -> {
+              log.warn("Lost the change notification connection, reconnecting", signal.failure());
+              reconnects.increment();
+            }))
+        .subscribe(this::onNotification);
+  }
+
+  private Mono<PostgresqlConnection> connect() {
+    // a pooled connection would go back to the pool and stop listening
+    var factory = connectionFactory instanceof Wrapped<?> wrapped && wrapped.unwrap() instanceof ConnectionFactory unwrapped
+        ? unwrapped
+        : connectionFactory;
+    return Mono.from(factory.create())
+        .cast(PostgresqlConnection.class);
+  }
+
+  private Flux<Notification> notifications(PostgresqlConnection connection) {
+    return connection.createStatement("LISTEN " + CHANNEL)
+        .execute()
+        .flatMap(PostgresqlResult::getRowsUpdated)
+        .thenMany(Flux.defer(() -> {
+          log.info("Listening to change notifications as node {}", nodeId);
+          eventPublisher.publishEvent(ChangeNotification.resync());
+          // a broken connection is only noticed when something is sent on it
+          var keepAlive = Flux.interval(keepAliveInterval)
+              .concatMap(tick -> connection.createStatement("SELECT 1").execute()
+                  .flatMap(PostgresqlResult::getRowsUpdated))
+              .then(Mono.<Notification>empty());
+          return Flux.merge(connection.getNotifications(), keepAlive);
+        }));
+  }
+
+  private void onNotification(Notification notification) {
+    var payload = notification.getParameter();
+    var parts = payload == null ? new String[0] : payload.split(":");
+    if (parts.length != 3) {
+      log.warn("Ignoring malformed change notification: {}", payload);
+      return;
+    }
+    if (nodeId.equals(parts[2])) {
+      return;
+    }
+    log.trace("Received change notification: {}", payload);
+    received.increment();
+    // a failing listener must not end the subscription
+    try {
+      eventPublisher.publishEvent(new ChangeNotification(parts[0], UUID.fromString(parts[1])));
+    } catch (RuntimeException e) {
+      log.error("Failed to handle change notification: {}", payload, e);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    if (listening != null) {
+      listening.dispose();
+    }
+  }
+}
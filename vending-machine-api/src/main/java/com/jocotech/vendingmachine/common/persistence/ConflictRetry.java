@@ -0,0 +1,51 @@
+package com.jocotech.vendingmachine.common.persistence;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+
+/**
+ * Retries optimistic read-modify-write operations that lost a race: saving an entity fails if its row was changed
+ * after it was read, because the {@code @Version} no longer matches. The whole operation is subscribed again, so it
+ * must read the entity again, and it must not run inside a transaction that would keep the failed state. Attempts
+ * are spaced with a jittered exponential backoff, after the last one the conflict is returned to the caller.
+ */
+@Component
+public class ConflictRetry {
+  private final int maxRetries;
+  private final Duration minBackoff;
+  private final MeterRegistry meterRegistry;
+
+  public ConflictRetry(@Value("${persistence.conflict-retry.max-retries}") int maxRetries,
+                       @Value("${persistence.conflict-retry.min-backoff}") long minBackoffMillis,
+                       MeterRegistry meterRegistry) {
+    this.maxRetries = maxRetries;
+    this.minBackoff = Duration.ofMillis(minBackoffMillis);
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * @should retry the operation after a conflict
+   * @should return the conflict once the retries are exhausted
+   * @should not retry other errors
+   */
+  public <T> Mono<T> retryOnConflict(String operation, Mono<T> readModifyWrite) {
+    return readModifyWrite
+        .doOnError(OptimisticLockingFailureException.class,
+            e -> meterRegistry.counter("persistence.conflicts", "operation", operation).increment())
+        .retryWhen(Retry.backoff(maxRetries, minBackoff)
+            .jitter(0.5)
+            .filter(OptimisticLockingFailureException.class::isInstance)
+            .doBeforeRetry(signal -> meterRegistry.counter("persistence.conflict.retries", "operation", operation)
+                .increment())
+            .onRetryExhaustedThrow((spec, signal) -> {
+              meterRegistry.counter("persistence.conflict.exhausted", "operation", operation).increment();
+              return signal.failure();
+            }));
+  }
+}
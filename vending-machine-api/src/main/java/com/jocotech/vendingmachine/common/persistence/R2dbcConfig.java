@@ -0,0 +1,16 @@
+package com.jocotech.vendingmachine.common.persistence;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.r2dbc.config.EnableR2dbcAuditing;
+import org.springframework.data.r2dbc.repository.config.EnableR2dbcRepositories;
+
+/**
+ * Postgres backed repositories, replaced by the in-memory ones in the {@code in-memory} profile.
+ */
+@Configuration
+@Profile("!in-memory")
+@EnableR2dbcRepositories(basePackages = "com.jocotech.vendingmachine")
+@EnableR2dbcAuditing
+public class R2dbcConfig {
+}
@@ -1,6 +1,9 @@
 package com.jocotech.vendingmachine.common.security;
 
+import com.jocotech.vendingmachine.user.Role;
+import com.jocotech.vendingmachine.user.User;
 import com.jocotech.vendingmachine.user.UserService;
+import io.jsonwebtoken.Claims;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.authentication.ReactiveAuthenticationManager;
@@ -11,6 +14,8 @@ import org.springframework.stereotype.Component;
 import reactor.core.publisher.Mono;
 
 import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
 
 
 @Slf4j
@@ -20,16 +25,31 @@ public class DefaultAuthenticationManager implements ReactiveAuthenticationManag
 
   private final UserService userService;
   private final JwtTokenUtil jwtTokenUtil;
+  private final PrincipalCache principalCache;
 
   @Override
   public Mono<Authentication> authenticate(Authentication authentication) {
     String authToken = authentication.getCredentials().toString();
     log.trace("Parsing and authenticating request with auth token: [{}]", authToken);
-    String userId = jwtTokenUtil.extractUserId(authToken);
-    return userService.findById(userId)
-        .map(user -> {
-          var roles = List.of(new SimpleGrantedAuthority(user.getRole().name()));
-          return new PreAuthenticatedAuthenticationToken(user.getId(), null, roles);
-        });
+    Claims claims = jwtTokenUtil.extractClaim(authToken, Function.identity());
+    if (JwtTokenUtil.isRefreshToken(claims)) {
+      log.debug("Refresh token used for authenticating a request");
+      return Mono.empty();
+    }
+    String userId = claims.getSubject();
+    var id = UUID.fromString(userId);
+    if (jwtTokenUtil.isStateless()) {
+      var role = JwtTokenUtil.extractRole(claims);
+      if (role != null) {
+        return Mono.just(authenticated(id, role));
+      }
+    }
+    return principalCache.getRole(id, key -> userService.findById(userId).map(User::getRole))
+        .map(role -> authenticated(id, role));
+  }
+
+  private static Authentication authenticated(UUID userId, Role role) {
+    var roles = List.of(new SimpleGrantedAuthority(role.name()));
+    return new PreAuthenticatedAuthenticationToken(userId, null, roles);
   }
 }
@@ -1,8 +1,11 @@
 package com.jocotech.vendingmachine.common.security;
 
-public class InvalidUserException extends RuntimeException {
+import com.jocotech.vendingmachine.common.error.DomainError;
+import com.jocotech.vendingmachine.common.error.DomainException;
+
+public class InvalidUserException extends DomainException {
 
   public InvalidUserException() {
-    super("Bad username or password!");
+    super(DomainError.INVALID_USER);
   }
 }
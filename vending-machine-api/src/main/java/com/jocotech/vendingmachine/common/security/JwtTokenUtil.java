@@ -1,42 +1,110 @@
 package com.jocotech.vendingmachine.common.security;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.jocotech.vendingmachine.user.Role;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import lombok.Getter;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 @Component
 public class JwtTokenUtil {
+  static final String ROLE_CLAIM = "role";
+  static final String TOKEN_TYPE_CLAIM = "typ";
+  static final String REFRESH_TOKEN_TYPE = "refresh";
 
   private final Key key;
+  private final JwtParser parser;
+  // already verified tokens keyed by their digest, each entry expires together with its token; null if disabled
+  private final Cache<String, Claims> verifiedTokens;
 
-  @Getter
   @Value("${jwt.token.validity}")
   private long tokenValidity;
 
+  @Getter
+  @Value("${jwt.refresh-token.validity}")
+  private long refreshTokenValidity;
+
+  // in stateless mode the role is signed into short-lived tokens, so requests are authenticated without a user lookup
+  @Getter
+  @Value("${jwt.stateless.enabled}")
+  private boolean stateless;
+
+  @Value("${jwt.stateless.token.validity}")
+  private long statelessTokenValidity;
+
   // get secret from secrets manager instead
-  public JwtTokenUtil(@Value("${jwt.secret}") String secret) {
+  public JwtTokenUtil(@Value("${jwt.secret}") String secret,
+                      @Value("${jwt.cache.maximum-size}") long cacheSize,
+                      MeterRegistry meterRegistry) {
     this.key = Keys.hmacShaKeyFor(secret.getBytes());
+    this.parser = Jwts.parserBuilder().setSigningKey(key).build();
+    if (cacheSize > 0) {
+      this.verifiedTokens = Caffeine.newBuilder()
+          .maximumSize(cacheSize)
+          .expireAfter(new TokenExpiry())
+          .recordStats()
+          .build();
+      CaffeineCacheMetrics.monitor(meterRegistry, verifiedTokens, "verifiedTokens");
+    } else {
+      this.verifiedTokens = null;
+    }
   }
 
-  public String generateToken(UUID userId) {
+  /**
+   * Validity of the generated tokens in seconds.
+   */
+  public long getTokenValidity() {
+    return stateless ? statelessTokenValidity : tokenValidity;
+  }
+
+  /**
+   * @should sign the role into the token in stateless mode
+   * @should not sign the role into the token by default
+   */
+  public String generateToken(UUID userId, Role role) {
+    Map<String, Object> claims = new HashMap<>();
+    if (stateless) {
+      claims.put(ROLE_CLAIM, role.name());
+    }
+    return createToken(claims, userId.toString(), getTokenValidity());
+  }
+
+  /**
+   * Refresh tokens can only be exchanged for new access tokens, they are not accepted for authenticating requests.
+   *
+   * @should generate a token that is recognised as a refresh token
+   */
+  public String generateRefreshToken(UUID userId) {
     Map<String, Object> claims = new HashMap<>();
-    return createToken(claims, userId.toString());
+    claims.put(TOKEN_TYPE_CLAIM, REFRESH_TOKEN_TYPE);
+    return createToken(claims, userId.toString(), refreshTokenValidity);
   }
 
-  private String createToken(Map<String, Object> claims, String subject) {
+  private String createToken(Map<String, Object> claims, String subject, long validity) {
     long now = System.currentTimeMillis();
-    long expirationTime = now + tokenValidity * 1000;
+    long expirationTime = now + validity * 1000;
 
     return Jwts.builder()
         .setClaims(claims)
@@ -47,16 +115,87 @@ public class JwtTokenUtil {
         .compact();
   }
 
+  /**
+   * @should return the subject of a valid token
+   * @should return the same subject for a token that is already verified
+   * @should verify the token on every use if the cache is disabled
+   * @should reject a token with an invalid signature
+   * @should reject an expired token
+   */
   public String extractUserId(String token) {
     return extractClaim(token, Claims::getSubject);
   }
 
+  /**
+   * @return the role signed into the token, or null if the token doesn't carry one
+   */
+  public static Role extractRole(Claims claims) {
+    var role = claims.get(ROLE_CLAIM, String.class);
+    return role == null ? null : Role.valueOf(role);
+  }
+
+  /**
+   * @should not recognise an access token as a refresh token
+   */
+  public static boolean isRefreshToken(Claims claims) {
+    return REFRESH_TOKEN_TYPE.equals(claims.get(TOKEN_TYPE_CLAIM, String.class));
+  }
+
   public <T> T extractClaim(String token, Function<Claims, T> claimsResolver) {
     final Claims claims = extractAllClaims(token);
     return claimsResolver.apply(claims);
   }
 
   private Claims extractAllClaims(String token) {
-    return Jwts.parserBuilder().setSigningKey(key).build().parseClaimsJws(token).getBody();
+    if (verifiedTokens == null) {
+      return parser.parseClaimsJws(token).getBody();
+    }
+    var digest = digest(token);
+    var claims = verifiedTokens.getIfPresent(digest);
+    if (claims == null) {
+      // invalid tokens throw here, so only verified tokens end up in the cache
+      claims = parser.parseClaimsJws(token).getBody();
+      verifiedTokens.put(digest, claims);
+    }
+    return claims;
+  }
+
+  private static String digest(String token) {
+    try {
+      var sha256 = MessageDigest.getInstance("SHA-256");
+      return Base64.getEncoder().encodeToString(sha256.digest(token.getBytes(StandardCharsets.US_ASCII)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  /**
+   * Statistics of the cache of verified tokens, empty if the cache is disabled.
+   */
+  public CacheStats stats() {
+    return verifiedTokens == null ? CacheStats.empty() : verifiedTokens.stats();
+  }
+
+  // evicts a verified token no later than its exp claim, tokens without one are not cached
+  private static class TokenExpiry implements Expiry<String, Claims> {
+    @Override
+    public long expireAfterCreate(String digest, Claims claims, long currentTime) {
+      var expiration = claims.getExpiration();
+      if (expiration == null) {
+        return 0;
+      }
+      var remaining = expiration.getTime() - System.currentTimeMillis();
+      return TimeUnit.MILLISECONDS.toNanos(Math.max(remaining, 0));
+    }
+
+    @Override
+    public long expireAfterUpdate(String digest, Claims claims, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
+
+    @Override
+    public long expireAfterRead(String digest, Claims claims, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
   }
 }
@@ -0,0 +1,92 @@
+package com.jocotech.vendingmachine.common.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs the {@link PasswordEncoder} on a dedicated bounded scheduler, so the deliberately slow password hashing does not
+ * block the event loop. At most {@code concurrency} passwords are hashed at once and at most {@code queue-capacity}
+ * hashes wait per thread, further requests are rejected with 503 instead of piling up.
+ */
+@Slf4j
+@Component
+public class PasswordHasher implements DisposableBean {
+  private final PasswordEncoder passwordEncoder;
+  private final Scheduler scheduler;
+
+  private final Timer queueWait;
+  private final Timer encodeTime;
+  private final Timer matchTime;
+  private final Counter rejected;
+
+  public PasswordHasher(PasswordEncoder passwordEncoder,
+                        @Value("${security.password-hasher.concurrency}") int concurrency,
+                        @Value("${security.password-hasher.queue-capacity}") int queueCapacity,
+                        MeterRegistry meterRegistry) {
+    this.passwordEncoder = passwordEncoder;
+    this.scheduler = Schedulers.newBoundedElastic(concurrency, queueCapacity, "password-hasher");
+    this.queueWait = Timer.builder("password.hasher.queue.wait")
+        .description("Time password hashes wait for a hasher thread")
+        .register(meterRegistry);
+    this.encodeTime = Timer.builder("password.hasher.duration")
+        .description("Time spent hashing passwords")
+        .tag("operation", "encode")
+        .register(meterRegistry);
+    this.matchTime = Timer.builder("password.hasher.duration")
+        .description("Time spent hashing passwords")
+        .tag("operation", "matches")
+        .register(meterRegistry);
+    this.rejected = meterRegistry.counter("password.hasher.rejected");
+  }
+
+  /**
+   * @should encode the password off the calling thread
+   * @should return service unavailable if the queue is full
+   */
+  public Mono<String> encode(CharSequence password) {
+    return hash(encodeTime, () -> passwordEncoder.encode(password));
+  }
+
+  /**
+   * @should match the password against its hash
+   */
+  public Mono<Boolean> matches(CharSequence password, String encodedPassword) {
+    return hash(matchTime, () -> passwordEncoder.matches(password, encodedPassword));
+  }
+
+  private <T> Mono<T> hash(Timer timer, Supplier<T> hash) {
+    return Mono.defer(() -> {
+          var queuedAt = System.nanoTime();
+          return Mono.fromSupplier(() -> {
+                queueWait.record(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+                return timer.record(hash);
+              })
+              .subscribeOn(scheduler);
+        })
+        .onErrorMap(RejectedExecutionException.class, e -> {
+          log.warn("Password hasher queue is full, rejecting request");
+          rejected.increment();
+          return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many concurrent logins, try again later");
+        });
+  }
+
+  @Override
+  public void destroy() {
+    scheduler.dispose();
+  }
+}
@@ -0,0 +1,97 @@
+package com.jocotech.vendingmachine.common.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.jocotech.vendingmachine.common.notification.ChangeNotification;
+import com.jocotech.vendingmachine.user.Role;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Bounded, time limited cache of the roles of authenticated users, so authenticating a request doesn't need a
+ * database lookup. Entries must be invalidated whenever a user's role or credentials change.
+ */
+@Slf4j
+@Component
+public class PrincipalCache {
+  private final Cache<UUID, Role> roles;
+  // bumped on every invalidation, so a load racing with an invalidation doesn't cache a stale role
+  private final AtomicLong invalidations = new AtomicLong();
+
+  public PrincipalCache(@Value("${security.principal-cache.maximum-size}") long maximumSize,
+                        @Value("${security.principal-cache.ttl}") long ttl,
+                        MeterRegistry meterRegistry) {
+    this.roles = Caffeine.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(Duration.ofSeconds(ttl))
+        .recordStats()
+        .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, roles, "principals");
+  }
+
+  /**
+   * @should return the cached role without loading it
+   * @should load and cache the role of a user that is not cached
+   * @should not cache a role loaded before an invalidation
+   */
+  public Mono<Role> getRole(UUID userId, Function<UUID, Mono<Role>> loader) {
+    var cached = roles.getIfPresent(userId);
+    if (cached != null) {
+      return Mono.just(cached);
+    }
+    return Mono.defer(() -> {
+      var generation = invalidations.get();
+      return loader.apply(userId)
+          .doOnNext(role -> {
+            if (generation == invalidations.get()) {
+              roles.put(userId, role);
+            }
+          });
+    });
+  }
+
+  /**
+   * @should drop the cached role of the user
+   */
+  public void invalidate(UUID userId) {
+    log.trace("Invalidating cached principal: {}", userId);
+    invalidations.incrementAndGet();
+    roles.invalidate(userId);
+  }
+
+  /**
+   * @should drop the cached roles of every user
+   */
+  public void invalidateAll() {
+    log.trace("Invalidating all cached principals");
+    invalidations.incrementAndGet();
+    roles.invalidateAll();
+  }
+
+  /**
+   * Drops the principals changed by other instances.
+   */
+  @EventListener
+  public void onChangeNotification(ChangeNotification notification) {
+    if (notification.isResync()) {
+      invalidateAll();
+    } else if (notification.isAbout(ChangeNotification.USER)) {
+      invalidate(notification.id());
+    }
+  }
+
+  public CacheStats stats() {
+    return roles.stats();
+  }
+}
@@ -36,6 +36,7 @@ public class WebSecurityConfig {
 
   private static final String[] USER_ENDPOINT_WHITELIST = {
       "/login",
+      "/token/refresh",
       "/user"
   };
 
@@ -14,11 +14,18 @@ public class LoginController {
   private final LoginService loginService;
 
   record LoginRequest(String username, String password) {}
-  record LoginResponse(String accessToken, Long expiresIn, String tokenType) {}
+  record LoginResponse(String accessToken, Long expiresIn, String tokenType, String refreshToken) {}
+  record RefreshTokenRequest(String refreshToken) {}
 
   @PostMapping("/login")
   public Mono<LoginResponse> login(@RequestBody LoginRequest request) {
     log.info("Attempting authentication for: {}", request.username());
     return loginService.login(request);
   }
+
+  @PostMapping("/token/refresh")
+  public Mono<LoginResponse> refresh(@RequestBody RefreshTokenRequest request) {
+    log.info("Refreshing access token");
+    return loginService.refresh(request.refreshToken());
+  }
 }
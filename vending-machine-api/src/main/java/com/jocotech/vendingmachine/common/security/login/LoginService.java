@@ -1,34 +1,82 @@
 package com.jocotech.vendingmachine.common.security.login;
 
+import com.jocotech.vendingmachine.common.metrics.OperationMetrics;
 import com.jocotech.vendingmachine.common.security.InvalidUserException;
 import com.jocotech.vendingmachine.common.security.JwtTokenUtil;
+import com.jocotech.vendingmachine.common.security.PasswordHasher;
+import com.jocotech.vendingmachine.user.User;
 import com.jocotech.vendingmachine.user.UserService;
+import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.Tags;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.core.context.ReactiveSecurityContextHolder;
 import org.springframework.security.core.context.SecurityContext;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.web.bind.annotation.RequestBody;
 import reactor.core.publisher.Mono;
 
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
 import java.util.UUID;
+import java.util.function.Function;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class LoginService {
+  private static final String METRIC_NAME = "security.logins";
+  private static final String REFRESH_METRIC_NAME = "security.token.refreshes";
+
   private final UserService userService;
   private final JwtTokenUtil jwtTokenUtil;
-  private final PasswordEncoder passwordEncoder;
+  private final PasswordHasher passwordHasher;
+  private final OperationMetrics operationMetrics;
 
   public Mono<LoginController.LoginResponse> login(@RequestBody LoginController.LoginRequest request) {
     log.info("Attempting authentication for: {}", request.username());
-    return userService.findByUsername(request.username())
-        .filter(user -> passwordEncoder.matches(request.password(), user.getPassword()))
+    return operationMetrics.timed(userService.findByUsername(request.username())
+        .filterWhen(user -> passwordHasher.matches(request.password(), user.getPassword()))
+        .switchIfEmpty(Mono.error(InvalidUserException::new))
+        .map(user -> loginResponse(user, jwtTokenUtil.generateRefreshToken(user.getId()))),
+        METRIC_NAME, Tags.empty());
+  }
+
+  /**
+   * Exchanges a refresh token for a new access token. Only the signature of the token and the user it was issued to
+   * are checked, the password is not hashed again.
+   *
+   * @should return a new access token for a valid refresh token
+   * @should reject an access token
+   * @should reject a refresh token issued before the credentials of the user changed
+   * @should reject a refresh token of a deleted user
+   * @should reject a missing or blank refresh token
+   * @should accept a refresh token issued in the same second as the credentials of the user changed
+   */
+  public Mono<LoginController.LoginResponse> refresh(String refreshToken) {
+    var verified = refreshToken == null || refreshToken.isBlank()
+        ? Mono.<Claims>error(InvalidUserException::new)
+        : Mono.fromCallable(() -> jwtTokenUtil.extractClaim(refreshToken, Function.identity()));
+    return operationMetrics.timed(verified
+        .filter(JwtTokenUtil::isRefreshToken)
+        .flatMap(claims -> userService.findById(claims.getSubject())
+            .filter(user -> !isRevoked(claims, user)))
         .switchIfEmpty(Mono.error(InvalidUserException::new))
-        .map(user -> jwtTokenUtil.generateToken(user.getId()))
-        .map(token -> new LoginController.LoginResponse(token, jwtTokenUtil.getTokenValidity(), "Bearer"));
+        .map(user -> loginResponse(user, refreshToken)),
+        REFRESH_METRIC_NAME, Tags.empty());
+  }
+
+  private LoginController.LoginResponse loginResponse(User user, String refreshToken) {
+    var token = jwtTokenUtil.generateToken(user.getId(), user.getRole());
+    return new LoginController.LoginResponse(token, jwtTokenUtil.getTokenValidity(), "Bearer", refreshToken);
+  }
+
+  // the issue time of tokens is truncated to seconds, so the change is compared at the same precision: a token issued
+  // in the same second as the change stays valid, otherwise a login right after a password change would be revoked
+  private static boolean isRevoked(Claims claims, User user) {
+    var changed = user.getCredentialsChangedDate();
+    return changed != null && claims.getIssuedAt().toInstant()
+        .isBefore(changed.atZone(ZoneId.systemDefault()).toInstant().truncatedTo(ChronoUnit.SECONDS));
   }
 
   public Mono<UUID> getCurrentUserId() {
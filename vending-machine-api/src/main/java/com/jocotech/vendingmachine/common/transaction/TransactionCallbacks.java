@@ -0,0 +1,49 @@
+package com.jocotech.vendingmachine.common.transaction;
+
+import org.springframework.transaction.NoTransactionException;
+import org.springframework.transaction.reactive.TransactionSynchronization;
+import org.springframework.transaction.reactive.TransactionSynchronizationManager;
+import reactor.core.publisher.Mono;
+
+public final class TransactionCallbacks {
+
+  private TransactionCallbacks() {
+  }
+
+  /**
+   * Runs the action once the surrounding reactive transaction commits, it never runs if the transaction rolls back.
+   * Without a surrounding transaction the action runs right away.
+   */
+  public static Mono<Void> afterCommit(Runnable action) {
+    return TransactionSynchronizationManager.forCurrentTransaction()
+        .filter(TransactionSynchronizationManager::isSynchronizationActive)
+        .doOnNext(synchronizationManager -> synchronizationManager.registerSynchronization(
+            new TransactionSynchronization() {
+              @Override
+              public Mono<Void> afterCommit() {
+                return Mono.fromRunnable(action);
+              }
+            }))
+        .onErrorResume(NoTransactionException.class, e -> Mono.empty())
+        .hasElement()
+        .flatMap(registered -> registered ? Mono.<Void>empty() : Mono.<Void>fromRunnable(action));
+  }
+
+  /**
+   * Runs the action if the surrounding reactive transaction rolls back. Without a surrounding transaction there is
+   * nothing to roll back and the action never runs.
+   */
+  public static Mono<Void> onRollback(Runnable action) {
+    return TransactionSynchronizationManager.forCurrentTransaction()
+        .filter(TransactionSynchronizationManager::isSynchronizationActive)
+        .doOnNext(synchronizationManager -> synchronizationManager.registerSynchronization(
+            new TransactionSynchronization() {
+              @Override
+              public Mono<Void> afterCompletion(int status) {
+                return status == STATUS_ROLLED_BACK ? Mono.fromRunnable(action) : Mono.empty();
+              }
+            }))
+        .onErrorResume(NoTransactionException.class, e -> Mono.empty())
+        .then();
+  }
+}
@@ -1,7 +1,10 @@
 package com.jocotech.vendingmachine.machine;
 
-public class InsufficientFundsException extends RuntimeException {
+import com.jocotech.vendingmachine.common.error.DomainError;
+import com.jocotech.vendingmachine.common.error.DomainException;
+
+public class InsufficientFundsException extends DomainException {
   public InsufficientFundsException() {
-    super("Insufficient funds, please deposit more coins.");
+    super(DomainError.INSUFFICIENT_FUNDS);
   }
 }
@@ -1,7 +1,10 @@
 package com.jocotech.vendingmachine.machine;
 
-public class InsufficientProductException extends RuntimeException {
+import com.jocotech.vendingmachine.common.error.DomainError;
+import com.jocotech.vendingmachine.common.error.DomainException;
+
+public class InsufficientProductException extends DomainException {
   public InsufficientProductException() {
-    super("Not enough products available for purchase.");
+    super(DomainError.INSUFFICIENT_PRODUCT);
   }
 }
@@ -1,8 +1,11 @@
 package com.jocotech.vendingmachine.machine;
 
-public class InvalidCoinException extends RuntimeException {
+import com.jocotech.vendingmachine.common.error.DomainError;
+import com.jocotech.vendingmachine.common.error.DomainException;
+
+public class InvalidCoinException extends DomainException {
 
   public InvalidCoinException() {
-    super("Please try with a different coin!");
+    super(DomainError.INVALID_COIN);
   }
 }
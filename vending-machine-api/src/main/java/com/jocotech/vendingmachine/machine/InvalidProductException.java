@@ -1,7 +1,10 @@
 package com.jocotech.vendingmachine.machine;
 
-public class InvalidProductException extends RuntimeException {
+import com.jocotech.vendingmachine.common.error.DomainError;
+import com.jocotech.vendingmachine.common.error.DomainException;
+
+public class InvalidProductException extends DomainException {
   public InvalidProductException() {
-    super("Invalid product selected.");
+    super(DomainError.INVALID_PRODUCT);
   }
 }
@@ -0,0 +1,171 @@
+package com.jocotech.vendingmachine.machine;
+
+import com.jocotech.vendingmachine.common.metrics.OperationMetrics;
+import com.jocotech.vendingmachine.common.security.login.LoginService;
+import com.jocotech.vendingmachine.product.ProductService;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Optional execution mode of purchases: every product gets a lane, an ordered queue with a single writer. The lane
+ * takes the purchases waiting in its queue and buys them with {@link VendingMachineService#buyAll}, so concurrent
+ * purchases of a popular product are batched into one stock update instead of competing for its row. Purchases of a
+ * product that is known to be sold out are rejected before they are queued, and a full queue rejects new purchases
+ * with 503. A lane is removed once it is idle and empty, so only the products being bought keep a lane.
+ */
+@Slf4j
+@Component
+public class PurchaseLanes {
+  private final LoginService loginService;
+  private final ProductService productService;
+  private final VendingMachineService vendingMachineService;
+  private final OperationMetrics operationMetrics;
+  @Getter
+  private final boolean enabled;
+  private final int queueCapacity;
+  private final int maxBatchSize;
+  private final DistributionSummary batchSizes;
+  private final Map<UUID, Lane> lanes = new ConcurrentHashMap<>();
+
+  record Purchase(UUID userId, int amount) {}
+
+  record Result(VendingMachineController.PurchaseResponse response, RuntimeException error) {
+    static Result success(VendingMachineController.PurchaseResponse response) {
+      return new Result(response, null);
+    }
+
+    static Result failure(RuntimeException error) {
+      return new Result(null, error);
+    }
+  }
+
+  private record Waiting(Purchase purchase, Sinks.One<VendingMachineController.PurchaseResponse> result) {}
+
+  private static class Lane {
+    private final Queue<Waiting> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean();
+  }
+
+  public PurchaseLanes(LoginService loginService, ProductService productService,
+                       VendingMachineService vendingMachineService, OperationMetrics operationMetrics,
+                       @Value("${machine.purchase-lanes.enabled}") boolean enabled,
+                       @Value("${machine.purchase-lanes.queue-capacity}") int queueCapacity,
+                       @Value("${machine.purchase-lanes.max-batch-size}") int maxBatchSize,
+                       MeterRegistry meterRegistry) {
+    this.loginService = loginService;
+    this.productService = productService;
+    this.vendingMachineService = vendingMachineService;
+    this.operationMetrics = operationMetrics;
+    this.enabled = enabled;
+    this.queueCapacity = queueCapacity;
+    this.maxBatchSize = maxBatchSize;
+    this.batchSizes = DistributionSummary.builder("purchase.lanes.batch.size")
+        .description("Number of purchases bought with one stock update")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Queues the purchase in the lane of the product, it completes once the batch it was bought in is committed.
+   *
+   * @should return an error if the amount is not positive
+   * @should return an error if the product is not found
+   * @should reject the purchase without queueing it if the product is sold out
+   * @should reject the purchase if the queue of the product is full
+   * @should buy the purchases waiting in the queue together
+   * @should remove the lane of the product once it is idle
+   */
+  public Mono<VendingMachineController.PurchaseResponse> buy(String productId, int amount) {
+    var purchase = amount <= 0
+        ? Mono.<VendingMachineController.PurchaseResponse>error(
+            () -> new IllegalArgumentException("Purchase amount must be positive"))
+        : Mono.defer(() -> productService.getProductById(productId))
+            .switchIfEmpty(Mono.error(InvalidProductException::new))
+            .flatMap(product -> product.getAmountAvailable() < amount
+                ? Mono.<VendingMachineController.PurchaseResponse>error(InsufficientProductException::new)
+                : loginService.getCurrentUserId()
+                    .flatMap(userId -> enqueue(product.getId(), new Purchase(userId, amount))));
+    return operationMetrics.timed(purchase, VendingMachineService.METRIC_NAME, Tags.of("operation", "buy"));
+  }
+
+  private Mono<VendingMachineController.PurchaseResponse> enqueue(UUID productId, Purchase purchase) {
+    var lane = lanes.computeIfAbsent(productId, id -> new Lane());
+    if (lane.size.incrementAndGet() > queueCapacity) {
+      lane.size.decrementAndGet();
+      return Mono.error(() -> new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+          "Too many purchases waiting for the product, please try again later."));
+    }
+    var result = Sinks.<VendingMachineController.PurchaseResponse>one();
+    lane.queue.add(new Waiting(purchase, result));
+    drain(productId, lane);
+    return result.asMono();
+  }
+
+  // only one batch of a lane runs at a time, whoever finds the lane idle starts the next one
+  private void drain(UUID productId, Lane lane) {
+    if (!lane.draining.compareAndSet(false, true)) {
+      return;
+    }
+    var batch = new ArrayList<Waiting>();
+    Waiting waiting;
+    while (batch.size() < maxBatchSize && (waiting = lane.queue.poll()) != null) {
+      batch.add(waiting);
+    }
+    lane.size.addAndGet(-batch.size());
+    if (batch.isEmpty()) {
+      lane.draining.set(false);
+      if (!lane.queue.isEmpty()) {
+        drain(productId, lane);
+      } else if (lane.size.get() == 0) {
+        // a purchase queued in the removed lane meanwhile is still bought, its enqueue drains the lane itself
+        lanes.remove(productId, lane);
+      }
+      return;
+    }
+    batchSizes.record(batch.size());
+    // a batch that completes synchronously would otherwise start the next one on the same stack
+    vendingMachineService.buyAll(productId.toString(), batch.stream().map(Waiting::purchase).toList())
+        .subscribeOn(Schedulers.parallel())
+        .doFinally(signal -> {
+          lane.draining.set(false);
+          drain(productId, lane);
+        })
+        .subscribe(results -> complete(batch, results), error -> fail(batch, error));
+  }
+
+  private static void complete(List<Waiting> batch, List<Result> results) {
+    for (int i = 0; i < batch.size(); i++) {
+      var result = results.get(i);
+      if (result.error() == null) {
+        batch.get(i).result().tryEmitValue(result.response());
+      } else {
+        batch.get(i).result().tryEmitError(result.error());
+      }
+    }
+  }
+
+  private void fail(List<Waiting> batch, Throwable error) {
+    log.debug("Purchase batch of {} failed", batch.size(), error);
+    batch.forEach(waiting -> waiting.result().tryEmitError(error));
+  }
+}
@@ -1,39 +1,71 @@
 package com.jocotech.vendingmachine.machine;
 
+import com.jocotech.vendingmachine.common.idempotency.IdempotentRequests;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Mono;
 import reactor.util.function.Tuple3;
 
+import java.util.List;
+
 @Slf4j
 @RestController
 @RequiredArgsConstructor
 public class VendingMachineController {
+  static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
   private final VendingMachineService vendingMachineService;
+  private final PurchaseLanes purchaseLanes;
+  private final IdempotentRequests idempotentRequests;
 
   record DepositRequest(int coin) {}
   record DepositResponse(int deposit) {}
+  record BatchDepositRequest(List<Integer> coins) {}
+  record BatchDepositResponse(int deposit, List<Integer> accepted, List<Integer> rejected) {}
   record PurchaseRequest(String productId, int amount) {}
   record ProductDetails(String productId, String productName, int price, int amountBought) {}
   record PurchaseResponse(int amountSpent, ProductDetails product, int change) {}
+  record CheckoutRequest(List<PurchaseRequest> items) {}
+  record CheckoutResponse(int amountSpent, List<ProductDetails> products, int change) {}
 
   @PostMapping(path = "/deposit")
   @PreAuthorize("hasRole('BUYER')")
-  public Mono<DepositResponse> deposit(@RequestBody DepositRequest request) {
+  public Mono<DepositResponse> deposit(@RequestBody DepositRequest request,
+                                       @RequestHeader(name = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
     log.info("Received deposit request for: {}", request);
-    return vendingMachineService.deposit(request.coin())
-        .map(DepositResponse::new);
+    return idempotentRequests.execute(idempotencyKey, "deposit", request, DepositResponse.class,
+        vendingMachineService.deposit(request.coin())
+            .map(DepositResponse::new));
+  }
+
+  @PostMapping(path = "/deposit/batch")
+  @PreAuthorize("hasRole('BUYER')")
+  public Mono<BatchDepositResponse> depositAll(@RequestBody BatchDepositRequest request) {
+    log.info("Received batch deposit request for: {}", request);
+    return vendingMachineService.depositAll(request.coins());
   }
 
   @PostMapping(path = "/buy")
   @PreAuthorize("hasRole('BUYER')")
-  public Mono<PurchaseResponse> buy(@RequestBody PurchaseRequest request) {
+  public Mono<PurchaseResponse> buy(@RequestBody PurchaseRequest request,
+                                    @RequestHeader(name = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
     log.info("Received buy request for: {}", request);
-    return vendingMachineService.buy(request.productId(), request.amount());
+    return idempotentRequests.execute(idempotencyKey, "buy", request, PurchaseResponse.class,
+        purchaseLanes.isEnabled()
+            ? purchaseLanes.buy(request.productId(), request.amount())
+            : vendingMachineService.buy(request.productId(), request.amount()));
+  }
+
+  @PostMapping(path = "/checkout")
+  @PreAuthorize("hasRole('BUYER')")
+  public Mono<CheckoutResponse> checkout(@RequestBody CheckoutRequest request) {
+    log.info("Received checkout request for: {}", request);
+    return vendingMachineService.checkout(request.items());
   }
 
   @PostMapping(path = "/reset")
@@ -1,19 +1,24 @@
 package com.jocotech.vendingmachine.machine;
 
+import com.jocotech.vendingmachine.common.metrics.OperationMetrics;
 import com.jocotech.vendingmachine.common.security.login.LoginService;
 import com.jocotech.vendingmachine.product.Product;
 import com.jocotech.vendingmachine.product.ProductService;
-import com.jocotech.vendingmachine.user.User;
 import com.jocotech.vendingmachine.user.UserService;
+import io.micrometer.core.instrument.Tags;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.util.function.Tuple3;
 
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 @Slf4j
@@ -21,44 +26,69 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class VendingMachineService {
   private static final List<Integer> COINS = List.of(5, 10, 20, 50, 100);
+  static final String METRIC_NAME = "vending.machine.operations";
 
   private final LoginService loginService;
   private final UserService userService;
   private final ProductService productService;
+  private final OperationMetrics operationMetrics;
 
   /**
+   * The coin is added with a single increment statement, so no transaction is needed and concurrent deposits of the
+   * same user are never lost.
+   *
    * @should return an error if the coin is not valid
-   * @should find the current user
-   * @should update the deposit amount of the current user with the coin amount
+   * @should add the coin to the deposit of the current user
+   * @should not load or save the whole user
    * @should return the current users total deposit amount after adding the coin
    */
-  @Transactional(propagation = Propagation.REQUIRED)
   public Mono<Integer> deposit(int coin) {
     log.debug("Attempting to deposit coin of value {}", coin);
-    if (!isValid(coin)) {
-      return Mono.error(InvalidCoinException::new);
-    }
-    return getCurrentUser()
-        .flatMap(user -> {
-          user.setDeposit(user.getDeposit() + coin);
-          return userService.update(user);
-        })
-        .doOnSuccess(savedUser -> log.info("{} cents deposited to user {}", coin, savedUser.getUsername()))
-        .map(User::getDeposit);
+    var deposit = isValid(coin)
+        ? loginService.getCurrentUserId()
+            .flatMap(userId -> userService.deposit(userId, coin)
+                .doOnNext(total -> log.info("{} cents deposited to user {}", coin, userId)))
+        : Mono.<Integer>error(InvalidCoinException::new);
+    return operationMetrics.timed(deposit, METRIC_NAME, Tags.of("operation", "deposit"));
   }
 
-  private static boolean isValid(int target) {
-    return COINS.contains(target);
+  /**
+   * Deposits several coins at once. Invalid coins are rejected one by one, without affecting the valid ones.
+   *
+   * @should return an error if there are no coins
+   * @should add the valid coins to the deposit together
+   * @should reject the invalid coins
+   * @should reject null coins
+   * @should return the current deposit without an update if all coins are invalid
+   */
+  public Mono<VendingMachineController.BatchDepositResponse> depositAll(List<Integer> coins) {
+    log.debug("Attempting to deposit coins {}", coins);
+    if (coins == null || coins.isEmpty()) {
+      return Mono.error(() -> new IllegalArgumentException("At least one coin must be deposited"));
+    }
+    var accepted = coins.stream().filter(VendingMachineService::isValid).toList();
+    var rejected = coins.stream().filter(coin -> !isValid(coin)).toList();
+    var total = accepted.stream().mapToInt(Integer::intValue).sum();
+    return loginService.getCurrentUserId()
+        .flatMap(userId -> (accepted.isEmpty()
+            ? userService.getDeposit(userId)
+            : userService.depositAll(userId, accepted))
+            .doOnNext(deposit -> log.info("{} cents deposited to user {} in {} coins, {} coins rejected",
+                total, userId, accepted.size(), rejected.size())))
+        .map(deposit -> new VendingMachineController.BatchDepositResponse(deposit, accepted, rejected));
   }
 
-  private Mono<User> getCurrentUser() {
-    return loginService.getCurrentUserId()
-        .map(UUID::toString)
-        .flatMap(userService::findById);
+  // COINS is an immutable list, its contains throws on null
+  private static boolean isValid(Integer coin) {
+    return coin != null && COINS.contains(coin);
   }
 
   /**
-   * @should get the current user
+   * Stock and deposit are changed with guarded conditional updates, so a purchase costs two statements and concurrent
+   * purchases can never oversell a product or overdraw a deposit.
+   *
+   * @should get the current user id
+   * @should return an error if the amount is not positive
    * @should return an error if the product is not found
    * @should return an error if there are not enough available items of the product to buy
    * @should return an error if the user doesn't have enough deposited amount to buy the product
@@ -68,42 +98,183 @@ public class VendingMachineService {
    */
   @Transactional(propagation = Propagation.REQUIRED)
   public Mono<VendingMachineController.PurchaseResponse> buy(String productId, int amount) {
-    return Mono.zip(getCurrentUser(), productService.getProductById(productId))
+    var purchase = amount <= 0
+        ? Mono.<VendingMachineController.PurchaseResponse>error(
+            () -> new IllegalArgumentException("Purchase amount must be positive"))
+        : loginService.getCurrentUserId()
+            .flatMap(userId -> productService.decrementStock(productId, amount)
+                .switchIfEmpty(Mono.defer(() -> stockUpdateFailure(productId)))
+                .doOnNext(product -> log.info("{} items removed for product {}", amount, product.getProductName()))
+                .flatMap(product -> withdraw(userId, product, amount)));
+    return operationMetrics.timed(purchase, METRIC_NAME, Tags.of("operation", "buy"));
+  }
+
+  /**
+   * Buys the product for several buyers at once, on behalf of its {@link PurchaseLanes purchase lane}. The product is
+   * read and locked first, so every buyer pays its current cost. Every buyer is charged with a guarded withdrawal, in
+   * the order of their ids so that concurrent batches lock the users in the same order, then the items of all charged
+   * purchases are removed with a single stock update. If there are not enough items left for all of them, the
+   * purchases are served one by one in order and the buyers left without items are refunded. The results are in the
+   * order of the purchases.
+   *
+   * @should return an error if the product is not found
+   * @should price the purchases with the locked product instead of the cached one
+   * @should charge the buyers in the order of their ids
+   * @should charge every buyer and remove the total amount with one update
+   * @should fail the purchases of buyers without enough deposit
+   * @should serve the purchases in order and refund the rest if there are not enough items
+   */
+  @Transactional(propagation = Propagation.REQUIRED)
+  public Mono<List<PurchaseLanes.Result>> buyAll(String productId, List<PurchaseLanes.Purchase> purchases) {
+    return productService.lockProduct(productId)
         .switchIfEmpty(Mono.error(InvalidProductException::new))
-        .flatMap(tuple -> buy(tuple.getT1(), tuple.getT2(), amount))
-        .map(tuple3 -> new VendingMachineController.PurchaseResponse(tuple3.getT1(),
-            new VendingMachineController.ProductDetails(tuple3.getT3().getId().toString(),
-                tuple3.getT3().getProductName(), tuple3.getT3().getCost(), amount),
-            tuple3.getT2().getDeposit()));
+        .flatMap(product -> chargeAll(purchases, product))
+        .flatMap(results -> removeItems(productId, purchases, results));
   }
 
-  private Mono<Tuple3<Integer, User, Product>> buy(User user, Product product, int amount) {
-    if (product.getAmountAvailable() < amount) {
-      return Mono.error(InsufficientProductException::new);
+  private Mono<List<PurchaseLanes.Result>> chargeAll(List<PurchaseLanes.Purchase> purchases, Product product) {
+    var results = new PurchaseLanes.Result[purchases.size()];
+    return Flux.range(0, purchases.size())
+        .sort(Comparator.comparing(i -> purchases.get(i).userId()))
+        .concatMap(i -> charge(purchases.get(i), product).doOnNext(result -> results[i] = result))
+        .then(Mono.fromSupplier(() -> Arrays.asList(results)));
+  }
+
+  private Mono<PurchaseLanes.Result> charge(PurchaseLanes.Purchase purchase, Product product) {
+    var price = product.getCost() * purchase.amount();
+    return userService.withdraw(purchase.userId(), price)
+        .map(change -> PurchaseLanes.Result.success(new VendingMachineController.PurchaseResponse(price,
+            new VendingMachineController.ProductDetails(product.getId().toString(), product.getProductName(),
+                product.getCost(), purchase.amount()),
+            change)))
+        .defaultIfEmpty(PurchaseLanes.Result.failure(new InsufficientFundsException()));
+  }
+
+  private Mono<List<PurchaseLanes.Result>> removeItems(String productId, List<PurchaseLanes.Purchase> purchases,
+                                                       List<PurchaseLanes.Result> results) {
+    var total = 0;
+    for (int i = 0; i < purchases.size(); i++) {
+      total += results.get(i).error() == null ? purchases.get(i).amount() : 0;
     }
-    var price = product.getCost() * amount;
-    if (price > user.getDeposit()) {
-      return Mono.error(InsufficientFundsException::new);
+    if (total == 0) {
+      return Mono.just(results);
+    }
+    var amount = total;
+    return productService.decrementStock(productId, amount)
+        .doOnNext(product -> log.info("{} items removed for product {} in a batch of {} purchases", amount,
+            product.getProductName(), purchases.size()))
+        .map(product -> results)
+        .switchIfEmpty(Flux.range(0, purchases.size())
+            .concatMap(i -> removeItemsOrRefund(productId, purchases.get(i), results.get(i)))
+            .collectList());
+  }
+
+  private Mono<PurchaseLanes.Result> removeItemsOrRefund(String productId, PurchaseLanes.Purchase purchase,
+                                                         PurchaseLanes.Result result) {
+    if (result.error() != null) {
+      return Mono.just(result);
     }
-    product.setAmountAvailable(product.getAmountAvailable() - amount);
-    user.setDeposit(user.getDeposit() - price);
-    var userUpdateMono = userService.update(user)
-        .doOnSuccess(savedUser -> log.info("{} cents deducted from user {}", price, savedUser.getUsername()));
-    var productUpdateMono = productService.update(product)
-        .doOnSuccess(savedProduct -> log.info("{} items removed for product {}", amount, savedProduct.getProductName()));
-    return Mono.zip(Mono.just(price), userUpdateMono, productUpdateMono);
+    return productService.decrementStock(productId, purchase.amount())
+        .map(product -> result)
+        .switchIfEmpty(Mono.defer(() -> userService.refund(purchase.userId(), result.response().amountSpent())
+            .thenReturn(PurchaseLanes.Result.failure(new InsufficientProductException()))));
   }
 
+  /**
+   * Buys several products in one transaction. The stock of all products is decremented with a single guarded
+   * statement and the total price is deducted from the deposit at once. Lines of the same product are merged.
+   *
+   * @should return an error if there are no items
+   * @should return an error if an amount is not positive
+   * @should return an error if a product id is missing
+   * @should merge the lines of the same product
+   * @should return an error if a product is not found
+   * @should return an error if there are not enough available items of a product
+   * @should deduct the total price from the user deposit once
+   * @should return an error if the user doesn't have enough deposited amount for all products
+   * @should return the products bought and the remaining deposit
+   */
   @Transactional(propagation = Propagation.REQUIRED)
+  public Mono<VendingMachineController.CheckoutResponse> checkout(List<VendingMachineController.PurchaseRequest> items) {
+    return Mono.fromCallable(() -> mergeLines(items))
+        .flatMap(amounts -> loginService.getCurrentUserId()
+            .flatMap(userId -> productService.decrementStock(amounts)
+                .collectMap(Product::getId)
+                .flatMap(products -> products.size() < amounts.size()
+                    ? stockUpdateFailure(amounts, products)
+                    : Mono.just(products))
+                .doOnNext(products -> log.info("{} products removed for checkout of user {}", products.size(), userId))
+                .flatMap(products -> withdraw(userId, products, amounts))));
+  }
+
+  private static Map<UUID, Integer> mergeLines(List<VendingMachineController.PurchaseRequest> items) {
+    if (items == null || items.isEmpty()) {
+      throw new IllegalArgumentException("Checkout must contain at least one item");
+    }
+    Map<UUID, Integer> amounts = new LinkedHashMap<>();
+    for (var item : items) {
+      if (item.productId() == null || item.productId().isBlank()) {
+        throw new IllegalArgumentException("Product id is required");
+      }
+      if (item.amount() <= 0) {
+        throw new IllegalArgumentException("Purchase amount must be positive");
+      }
+      amounts.merge(UUID.fromString(item.productId()), item.amount(), Integer::sum);
+    }
+    return amounts;
+  }
+
+  private <T> Mono<T> stockUpdateFailure(Map<UUID, Integer> amounts, Map<UUID, Product> updatedProducts) {
+    return amounts.keySet().stream()
+        .filter(id -> !updatedProducts.containsKey(id))
+        .findFirst()
+        .map(id -> this.<T>stockUpdateFailure(id.toString()))
+        .orElseGet(Mono::empty);
+  }
+
+  private Mono<VendingMachineController.CheckoutResponse> withdraw(UUID userId, Map<UUID, Product> products,
+                                                                   Map<UUID, Integer> amounts) {
+    var lines = amounts.entrySet().stream()
+        .map(line -> {
+          var product = products.get(line.getKey());
+          return new VendingMachineController.ProductDetails(product.getId().toString(), product.getProductName(),
+              product.getCost(), line.getValue());
+        })
+        .toList();
+    var price = lines.stream().mapToInt(line -> line.price() * line.amountBought()).sum();
+    return userService.withdraw(userId, price)
+        .switchIfEmpty(Mono.error(InsufficientFundsException::new))
+        .doOnNext(change -> log.info("{} cents deducted from user {}", price, userId))
+        .map(change -> new VendingMachineController.CheckoutResponse(price, lines, change));
+  }
+
+  // the guarded stock update didn't affect any row, either the product is missing or it has too few items
+  private <T> Mono<T> stockUpdateFailure(String productId) {
+    return productService.getProductById(productId)
+        .flatMap(product -> Mono.<T>error(InsufficientProductException::new))
+        .switchIfEmpty(Mono.error(InvalidProductException::new));
+  }
+
+  private Mono<VendingMachineController.PurchaseResponse> withdraw(UUID userId, Product product, int amount) {
+    var price = product.getCost() * amount;
+    return userService.withdraw(userId, price)
+        .switchIfEmpty(Mono.error(InsufficientFundsException::new))
+        .doOnNext(change -> log.info("{} cents deducted from user {}", price, userId))
+        .map(change -> new VendingMachineController.PurchaseResponse(price,
+            new VendingMachineController.ProductDetails(product.getId().toString(),
+                product.getProductName(), product.getCost(), amount),
+            change));
+  }
+
+  /**
+   * @should reset the deposit of the current user
+   * @should return the deposit after the reset
+   */
   public Mono<Integer> resetDeposit() {
     log.trace("Resetting deposit.");
-    return getCurrentUser()
-        .flatMap(user -> {
-          log.trace("Resetting deposit for user: {}", user.getUsername());
-          user.setDeposit(0);
-          return userService.update(user);
-        })
-        .doOnSuccess(savedUser -> log.info("User deposit set to 0 for user: {}", savedUser.getUsername()))
-        .map(User::getDeposit);
+    return operationMetrics.timed(loginService.getCurrentUserId()
+            .flatMap(userId -> userService.resetDeposit(userId)
+                .doOnNext(deposit -> log.info("User deposit set to 0 for user: {}", userId))),
+        METRIC_NAME, Tags.of("operation", "resetDeposit"));
   }
 }
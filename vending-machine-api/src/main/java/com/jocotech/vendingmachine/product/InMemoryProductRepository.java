@@ -0,0 +1,141 @@
+package com.jocotech.vendingmachine.product;
+
+import com.jocotech.vendingmachine.common.memory.InMemoryCrudRepository;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * {@link ProductRepository} of the {@code in-memory} profile. Products are kept in the same id order as the primary
+ * key index of the product table.
+ */
+@Repository
+@Profile("in-memory")
+public class InMemoryProductRepository extends InMemoryCrudRepository<Product> implements ProductRepository {
+
+  public InMemoryProductRepository() {
+    super(ProductCache.ID_ORDER);
+  }
+
+  @Override
+  public Flux<Product> findAllByOrderById() {
+    return findAll();
+  }
+
+  /**
+   * @should return the products following the given id in id order
+   */
+  @Override
+  public Flux<Product> findAllByIdGreaterThanOrderById(UUID after, Pageable pageable) {
+    var page = Flux.defer(() -> Flux.fromIterable(entities.tailMap(after, false).values()));
+    return (pageable.isPaged() ? page.take(pageable.getPageSize(), true) : page)
+        .map(this::copy);
+  }
+
+  /**
+   * @should return only the products of the seller following the given id in id order
+   */
+  @Override
+  public Flux<Product> findAllBySellerIdAndIdGreaterThanOrderById(UUID sellerId, UUID after, Pageable pageable) {
+    var page = Flux.defer(() -> Flux.fromIterable(entities.tailMap(after, false).values()))
+        .filter(product -> sellerId.equals(product.getSellerId()));
+    return (pageable.isPaged() ? page.take(pageable.getPageSize(), true) : page)
+        .map(this::copy);
+  }
+
+  // the in-memory transactions don't lock, every write of a transaction is undone on rollback instead
+  @Override
+  public Mono<Product> findByIdForUpdate(UUID id) {
+    return findById(id);
+  }
+
+  /**
+   * @should remove the amount from the available items
+   * @should complete empty if there are not enough items
+   * @should put the items back if the transaction rolls back
+   */
+  @Override
+  public Mono<Product> decrementStock(UUID id, int amount) {
+    return update(id,
+        product -> product.getAmountAvailable() >= amount
+            ? withAmountAvailable(product, product.getAmountAvailable() - amount)
+            : null,
+        product -> withAmountAvailable(product, product.getAmountAvailable() + amount));
+  }
+
+  @Override
+  public Flux<Product> decrementStock(UUID[] ids, Integer[] amounts) {
+    return Flux.range(0, ids.length)
+        .concatMap(i -> decrementStock(ids[i], amounts[i]));
+  }
+
+  /**
+   * @should create new products and restock the existing products of the seller
+   * @should skip the products of other sellers
+   */
+  @Override
+  public Flux<Product> importAll(UUID sellerId, String[] productNames, Integer[] costs, Integer[] amounts) {
+    return Flux.range(0, productNames.length)
+        .concatMap(i -> findByUniqueKey(productNames[i])
+            .map(Optional::of)
+            .defaultIfEmpty(Optional.empty())
+            .flatMap(existing -> existing.isEmpty()
+                ? save(Product.builder()
+                    .sellerId(sellerId)
+                    .productName(productNames[i])
+                    .cost(costs[i])
+                    .amountAvailable(amounts[i])
+                    .build())
+                : update(existing.get().getId(),
+                    product -> sellerId.equals(product.getSellerId())
+                        ? withAmountAvailable(product.toBuilder().cost(costs[i]).build(),
+                            product.getAmountAvailable() + amounts[i])
+                        : null,
+                    product -> withAmountAvailable(product.toBuilder().cost(existing.get().getCost()).build(),
+                        product.getAmountAvailable() - amounts[i]))));
+  }
+
+  @Override
+  protected UUID idOf(Product product) {
+    return product.getId();
+  }
+
+  @Override
+  protected Long versionOf(Product product) {
+    return product.getVersion();
+  }
+
+  @Override
+  protected Product copy(Product product) {
+    return product.toBuilder().build();
+  }
+
+  @Override
+  protected Product prepareForSave(Product product, Product existing, LocalDateTime now) {
+    return product.toBuilder()
+        .id(existing == null ? UUID.randomUUID() : existing.getId())
+        .createdDate(existing == null ? now : existing.getCreatedDate())
+        .lastModifiedDate(now)
+        .version(existing == null ? 0 : existing.getVersion() + 1)
+        .build();
+  }
+
+  @Override
+  protected String uniqueKeyOf(Product product) {
+    return product.getProductName();
+  }
+
+  private static Product withAmountAvailable(Product product, int amountAvailable) {
+    return product.toBuilder()
+        .amountAvailable(amountAvailable)
+        .lastModifiedDate(LocalDateTime.now())
+        .version(product.getVersion() + 1)
+        .build();
+  }
+}
@@ -0,0 +1,187 @@
+package com.jocotech.vendingmachine.product;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-process copy of the product catalog. It is loaded at startup, kept up to date by the writes going through
+ * {@link ProductService} and fully reloaded periodically. The cached products are shared, callers must not modify them.
+ * Products are kept in the same id order as the primary key index, so pages read from memory and from the database
+ * line up.
+ */
+@Slf4j
+@Component
+public class ProductCache {
+  // Postgres compares uuids byte by byte, which is the unsigned order of the two halves
+  static final Comparator<UUID> ID_ORDER = Comparator
+      .comparing(UUID::getMostSignificantBits, Long::compareUnsigned)
+      .thenComparing(UUID::getLeastSignificantBits, Long::compareUnsigned);
+
+  private final ProductRepository productRepository;
+  private final NavigableMap<UUID, Product> products = new ConcurrentSkipListMap<>(ID_ORDER);
+  // products written while a full reload is running, the reload must not overwrite them with what it read
+  private final Set<UUID> writtenDuringReload = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean reloading = new AtomicBoolean();
+  private volatile boolean loaded;
+  private volatile Instant lastReload;
+
+  private final Counter hits;
+  private final Counter misses;
+
+  public ProductCache(ProductRepository productRepository, MeterRegistry meterRegistry) {
+    this.productRepository = productRepository;
+    this.hits = meterRegistry.counter("product.cache.requests", "result", "hit");
+    this.misses = meterRegistry.counter("product.cache.requests", "result", "miss");
+    Gauge.builder("product.cache.size", products, Map::size)
+        .description("Number of cached products")
+        .register(meterRegistry);
+    Gauge.builder("product.cache.hit.ratio", this, ProductCache::hitRatio)
+        .description("Ratio of catalog reads served from memory")
+        .register(meterRegistry);
+    Gauge.builder("product.cache.staleness", this, ProductCache::staleness)
+        .description("Seconds since the catalog was last fully reloaded")
+        .baseUnit("seconds")
+        .register(meterRegistry);
+  }
+
+  Flux<Product> getAll() {
+    if (!loaded) {
+      misses.increment();
+      return productRepository.findAllByOrderById();
+    }
+    hits.increment();
+    return Flux.fromIterable(products.values());
+  }
+
+  /**
+   * @return at most {@code size} products following the {@code after} id, in id order
+   * @should return the products following the id in unsigned id order
+   * @should read the page from the repository until the cache is loaded
+   */
+  Flux<Product> getPage(UUID after, int size) {
+    if (!loaded) {
+      misses.increment();
+      return productRepository.findAllByIdGreaterThanOrderById(after, PageRequest.of(0, size));
+    }
+    hits.increment();
+    return Flux.fromIterable(products.tailMap(after, false).values())
+        .take(size, true);
+  }
+
+  /**
+   * @should return the cached product without reading it
+   * @should read a missing product through and cache it
+   */
+  Mono<Product> get(UUID id) {
+    var product = products.get(id);
+    if (product != null) {
+      hits.increment();
+      return Mono.just(product);
+    }
+    misses.increment();
+    return productRepository.findById(id)
+        .doOnNext(this::put);
+  }
+
+  /**
+   * After commit callbacks of concurrent writes can run in any order, the newer version of the product wins.
+   *
+   * @should keep the newer version of the product
+   */
+  void put(Product product) {
+    markWritten(product.getId());
+    products.merge(product.getId(), product, ProductCache::newer);
+  }
+
+  private static Product newer(Product cached, Product product) {
+    return cached.getVersion() != null && product.getVersion() != null && cached.getVersion() > product.getVersion()
+        ? cached
+        : product;
+  }
+
+  void evict(UUID id) {
+    markWritten(id);
+    products.remove(id);
+  }
+
+  private void markWritten(UUID id) {
+    if (reloading.get()) {
+      writtenDuringReload.add(id);
+    }
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void load() {
+    reload().subscribe();
+  }
+
+  @Scheduled(fixedDelayString = "${product.cache.reload-interval}", initialDelayString = "${product.cache.reload-interval}")
+  public void scheduledReload() {
+    reload().subscribe();
+  }
+
+  /**
+   * @should replace the cached products with the stored ones
+   * @should keep the products written during the reload
+   */
+  Mono<Void> reload() {
+    return Mono.defer(() -> {
+      if (!reloading.compareAndSet(false, true)) {
+        return Mono.empty();
+      }
+      log.debug("Reloading product cache");
+      return productRepository.findAll()
+          .collectMap(Product::getId)
+          .doOnNext(this::replaceWith)
+          .doFinally(signal -> {
+            writtenDuringReload.clear();
+            reloading.set(false);
+          })
+          .doOnError(e -> log.error("Failed to reload product cache", e))
+          .onErrorResume(e -> Mono.empty())
+          .then();
+    });
+  }
+
+  private void replaceWith(Map<UUID, Product> reloaded) {
+    reloaded.forEach((id, product) -> {
+      if (!writtenDuringReload.contains(id)) {
+        products.put(id, product);
+      }
+    });
+    products.keySet().removeIf(id -> !reloaded.containsKey(id) && !writtenDuringReload.contains(id));
+    lastReload = Instant.now();
+    loaded = true;
+    log.info("Product cache loaded with {} products", products.size());
+  }
+
+  private double hitRatio() {
+    var total = hits.count() + misses.count();
+    return total == 0 ? 0 : hits.count() / total;
+  }
+
+  private double staleness() {
+    var reloadedAt = lastReload;
+    return reloadedAt == null ? -1 : Duration.between(reloadedAt, Instant.now()).toSeconds();
+  }
+}
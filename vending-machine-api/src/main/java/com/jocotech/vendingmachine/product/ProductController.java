@@ -3,6 +3,9 @@ package com.jocotech.vendingmachine.product;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.lang.Nullable;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -11,6 +14,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
@@ -21,13 +25,57 @@ import reactor.core.publisher.Mono;
 @RequiredArgsConstructor
 public class ProductController {
   private final ProductService productService;
+  private final ProductImport productImport;
 
   record CreateProductRequest(String productName, int cost, int amountAvailable) { }
   record UpdateProductRequest(@Nullable String productName, @Nullable Integer cost, @Nullable Integer amountAvailable) { }
 
-  @GetMapping("/products")
-  public Flux<Product> getAllProducts() {
-    return productService.getAllProducts();
+  /**
+   * Lists the products in id order, either all of them or a page following the {@code after} cursor. Requested as
+   * {@code application/x-ndjson} the products are streamed one per line instead of being written as one JSON array.
+   */
+  @GetMapping(path = "/products", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+  public Flux<Product> getAllProducts(@RequestParam(required = false) @Nullable String after,
+                                      @RequestParam(required = false) @Nullable Integer size) {
+    if (after == null && size == null) {
+      return productService.getAllProducts();
+    }
+    return productService.getProducts(after, size == null ? ProductService.MAX_PAGE_SIZE : size);
+  }
+
+  /**
+   * Server-sent events of the current state of every product followed by their changes. Screens that fall behind
+   * get the latest state of each changed product instead of every intermediate one.
+   */
+  @GetMapping(path = "/products/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public Flux<ServerSentEvent<ProductEvents.ProductEvent>> streamProducts() {
+    return productService.streamProducts()
+        .map(event -> ServerSentEvent.builder(event)
+            .id(event.productId().toString())
+            .event(event.type().name().toLowerCase())
+            .build());
+  }
+
+  /**
+   * Lists the products of the current seller in id order, a page at a time following the {@code after} cursor.
+   */
+  @GetMapping(path = "/seller/products", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+  @PreAuthorize("hasRole('SELLER')")
+  public Flux<Product> getSellerProducts(@RequestParam(required = false) @Nullable String after,
+                                         @RequestParam(required = false) @Nullable Integer size) {
+    return productService.getSellerProducts(after, size == null ? ProductService.MAX_PAGE_SIZE : size);
+  }
+
+  /**
+   * Creates or restocks the current seller's products from an NDJSON or CSV upload, see {@link ProductImport}. The
+   * result of every line is streamed back as NDJSON.
+   */
+  @PostMapping(path = "/seller/products/import",
+      consumes = {MediaType.APPLICATION_NDJSON_VALUE, "text/csv"},
+      produces = MediaType.APPLICATION_NDJSON_VALUE)
+  @PreAuthorize("hasRole('SELLER')")
+  public Flux<ProductImport.Result> importProducts(ServerHttpRequest request) {
+    return productImport.importProducts(request.getBody(), request.getHeaders().getContentType());
   }
 
   @GetMapping("/products/{productId}")
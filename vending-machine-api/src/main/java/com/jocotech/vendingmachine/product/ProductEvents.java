@@ -0,0 +1,119 @@
+package com.jocotech.vendingmachine.product;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Sinks;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Broadcasts committed product changes to the subscribers of the product stream. Every subscriber has its own buffer
+ * holding only the latest event per product, so a slow subscriber skips intermediate states instead of slowing down
+ * the writers or the other subscribers, and its buffer never outgrows the catalog.
+ */
+@Slf4j
+@Component
+public class ProductEvents {
+  private final Sinks.Many<ProductEvent> events = Sinks.many().multicast().directBestEffort();
+  private final Counter conflated;
+
+  public ProductEvents(MeterRegistry meterRegistry) {
+    this.conflated = meterRegistry.counter("product.events.conflated");
+    Gauge.builder("product.events.subscribers", events, Sinks.Many::currentSubscriberCount)
+        .description("Number of subscribers of the product stream")
+        .register(meterRegistry);
+  }
+
+  public enum Type { UPDATED, DELETED }
+
+  /**
+   * @param product the product after the change, null if it was deleted
+   */
+  public record ProductEvent(Type type, UUID productId, Product product) {
+    static ProductEvent updated(Product product) {
+      return new ProductEvent(Type.UPDATED, product.getId(), product);
+    }
+
+    static ProductEvent deleted(UUID productId) {
+      return new ProductEvent(Type.DELETED, productId, null);
+    }
+  }
+
+  void updated(Product product) {
+    publish(ProductEvent.updated(product));
+  }
+
+  void deleted(UUID productId) {
+    publish(ProductEvent.deleted(productId));
+  }
+
+  // the sink must not be called concurrently, writes commit on many threads
+  private synchronized void publish(ProductEvent event) {
+    events.tryEmitNext(event);
+  }
+
+  /**
+   * The current state of every product from {@code snapshot} followed by the changes made after subscribing.
+   *
+   * @should send the snapshot followed by the changes
+   * @should only send the latest change of a product to a slow subscriber
+   * @should not send the snapshot of a product that changed after subscribing
+   */
+  Flux<ProductEvent> subscribe(Flux<Product> snapshot) {
+    return Flux.create(sink -> {
+      var buffer = new ConflatingBuffer(sink);
+      var live = events.asFlux().subscribe(buffer::offer);
+      var initial = snapshot.subscribe(buffer::offerSnapshot, sink::error);
+      sink.onRequest(requested -> buffer.drain());
+      sink.onDispose(() -> {
+        initial.dispose();
+        live.dispose();
+      });
+    });
+  }
+
+  // latest pending event per product in the order the products first changed, drained as the subscriber requests more
+  private class ConflatingBuffer {
+    private final FluxSink<ProductEvent> sink;
+    private final Map<UUID, ProductEvent> pending = new LinkedHashMap<>();
+    // products with live events, their snapshot is already outdated
+    private final Set<UUID> changed = new HashSet<>();
+
+    ConflatingBuffer(FluxSink<ProductEvent> sink) {
+      this.sink = sink;
+    }
+
+    synchronized void offer(ProductEvent event) {
+      changed.add(event.productId());
+      if (pending.put(event.productId(), event) != null) {
+        conflated.increment();
+      }
+      drain();
+    }
+
+    synchronized void offerSnapshot(Product product) {
+      if (!changed.contains(product.getId())) {
+        pending.put(product.getId(), ProductEvent.updated(product));
+        drain();
+      }
+    }
+
+    synchronized void drain() {
+      var iterator = pending.values().iterator();
+      while (iterator.hasNext() && sink.requestedFromDownstream() > 0 && !sink.isCancelled()) {
+        var event = iterator.next();
+        iterator.remove();
+        sink.next(event);
+      }
+    }
+  }
+}
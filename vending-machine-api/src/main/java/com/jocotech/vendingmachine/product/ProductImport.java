@@ -0,0 +1,147 @@
+package com.jocotech.vendingmachine.product;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.StringDecoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.UUID;
+
+/**
+ * Bulk import and restock of a seller's products from an NDJSON or CSV upload. The upload is split into lines as it
+ * arrives and imported in chunks, each chunk with a single statement, and the result of every line is streamed back
+ * as soon as its chunk is done. Only the chunk being imported is held in memory, the rest of the upload waits in the
+ * connection until it is requested.
+ * <p>
+ * NDJSON lines are objects like {@code {"productName": "Cola", "cost": 50, "amount": 10}}, CSV lines are
+ * {@code productName,cost,amount} with an optional header line. New products are created with the amount, existing
+ * products of the seller get the new cost and the amount is added to their stock.
+ */
+@Slf4j
+@Component
+public class ProductImport {
+  static final MediaType TEXT_CSV = MediaType.parseMediaType("text/csv");
+  private static final StringDecoder LINES = StringDecoder.allMimeTypes();
+
+  private final ProductService productService;
+  private final ObjectMapper objectMapper;
+  private final int chunkSize;
+
+  public ProductImport(ProductService productService,
+                       ObjectMapper objectMapper,
+                       @Value("${product.import.chunk-size}") int chunkSize) {
+    this.productService = productService;
+    this.objectMapper = objectMapper;
+    this.chunkSize = chunkSize;
+  }
+
+  public enum Status { CREATED, RESTOCKED, REJECTED }
+
+  record ImportRequest(String productName, Integer cost, Integer amount) {}
+
+  /**
+   * A parsed line of the upload, with the reason it can't be imported if it is malformed.
+   */
+  public record Line(long number, String productName, Integer cost, Integer amount, String error) {
+    static Line malformed(long number, String error) {
+      return malformed(number, null, error);
+    }
+
+    // the raw product name, if it could be read, tells the caller which row failed
+    static Line malformed(long number, String productName, String error) {
+      return new Line(number, productName, null, null, error);
+    }
+  }
+
+  public record Result(long line, String productName, Status status, UUID productId, String error) {
+    static Result imported(Line line, Product product) {
+      return new Result(line.number(), line.productName(),
+          product.getVersion() == 0 ? Status.CREATED : Status.RESTOCKED, product.getId(), null);
+    }
+
+    static Result rejected(Line line, String error) {
+      return new Result(line.number(), line.productName(), Status.REJECTED, null, error);
+    }
+  }
+
+  /**
+   * @should import the lines of an ndjson upload
+   * @should import the lines of a csv upload and skip its header
+   * @should reject malformed lines
+   * @should reject a json null line
+   * @should keep the first column of a malformed csv line
+   */
+  public Flux<Result> importProducts(Flux<DataBuffer> body, MediaType contentType) {
+    var csv = contentType != null && TEXT_CSV.isCompatibleWith(contentType);
+    return LINES.decode(body, ResolvableType.forClass(String.class), contentType, null)
+        .index()
+        .filter(line -> !line.getT2().isBlank())
+        .filter(line -> !(csv && line.getT1() == 0 && isCsvHeader(line.getT2())))
+        .map(line -> parse(csv, line.getT1() + 1, line.getT2()))
+        .buffer(chunkSize)
+        .concatMap(productService::importProducts);
+  }
+
+  // a line that can't be parsed is rejected on its own, it must never fail the rest of the upload
+  private Line parse(boolean csv, long number, String text) {
+    try {
+      return csv ? parseCsv(number, text) : parseJson(number, text);
+    } catch (RuntimeException e) {
+      log.debug("Line {} of the product import could not be parsed", number, e);
+      return Line.malformed(number, csv ? firstColumn(text) : null, "Malformed line");
+    }
+  }
+
+  private Line parseJson(long number, String text) {
+    try {
+      var request = objectMapper.readValue(text, ImportRequest.class);
+      if (request == null) {
+        return Line.malformed(number, "Malformed JSON");
+      }
+      return new Line(number, request.productName(), request.cost(), request.amount(), null);
+    } catch (JsonProcessingException e) {
+      return Line.malformed(number, "Malformed JSON");
+    }
+  }
+
+  private static boolean isCsvHeader(String text) {
+    return text.trim().toLowerCase().startsWith("productname");
+  }
+
+  // the numbers are the last two fields, so product names may contain commas
+  private static Line parseCsv(long number, String text) {
+    var amountAt = text.lastIndexOf(',');
+    var costAt = amountAt <= 0 ? -1 : text.lastIndexOf(',', amountAt - 1);
+    if (costAt < 0) {
+      return Line.malformed(number, firstColumn(text), "Expected productName,cost,amount");
+    }
+    try {
+      return new Line(number,
+          unquote(text.substring(0, costAt).trim()),
+          Integer.valueOf(text.substring(costAt + 1, amountAt).trim()),
+          Integer.valueOf(text.substring(amountAt + 1).trim()),
+          null);
+    } catch (NumberFormatException e) {
+      return Line.malformed(number, unquote(text.substring(0, costAt).trim()),
+          "Cost and amount must be whole numbers");
+    }
+  }
+
+  private static String firstColumn(String text) {
+    var end = text.indexOf(',');
+    return unquote((end < 0 ? text : text.substring(0, end)).trim());
+  }
+
+  private static String unquote(String field) {
+    if (field.length() >= 2 && field.startsWith("\"") && field.endsWith("\"")) {
+      return field.substring(1, field.length() - 1).replace("\"\"", "\"");
+    }
+    return field;
+  }
+}
@@ -1,10 +1,70 @@
 package com.jocotech.vendingmachine.product;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.util.UUID;
 
 @Repository
 public interface ProductRepository extends ReactiveCrudRepository<Product, UUID> {
+
+  Flux<Product> findAllByOrderById();
+
+  // keyset pagination over the primary key index
+  Flux<Product> findAllByIdGreaterThanOrderById(UUID after, Pageable pageable);
+
+  // keyset pagination over the (seller_id, id) index
+  Flux<Product> findAllBySellerIdAndIdGreaterThanOrderById(UUID sellerId, UUID after, Pageable pageable);
+
+  /**
+   * Reads the product and locks its row until the end of the current transaction, so its cost can't change before
+   * the transaction is done.
+   */
+  @Query("SELECT * FROM product WHERE id = :id FOR NO KEY UPDATE")
+  Mono<Product> findByIdForUpdate(UUID id);
+
+  /**
+   * Removes {@code amount} items from the product in a single statement, only if enough items are available.
+   * Completes empty if the product does not exist or has insufficient stock.
+   */
+  @Query("""
+      UPDATE product
+      SET amount_available = amount_available - :amount, last_modified_date = now(), version = version + 1
+      WHERE id = :id AND amount_available >= :amount
+      RETURNING *""")
+  Mono<Product> decrementStock(UUID id, int amount);
+
+  /**
+   * Removes the given amounts from several products in a single statement, {@code ids} and {@code amounts} are
+   * matched by position. Only products with enough items available are changed and returned.
+   */
+  @Query("""
+      UPDATE product p
+      SET amount_available = p.amount_available - line.amount, last_modified_date = now(), version = p.version + 1
+      FROM unnest(CAST(:ids AS uuid[]), CAST(:amounts AS int[])) AS line(id, amount)
+      WHERE p.id = line.id AND p.amount_available >= line.amount
+      RETURNING p.*""")
+  Flux<Product> decrementStock(UUID[] ids, Integer[] amounts);
+
+  /**
+   * Creates the products of the seller or restocks them if they already exist, in a single statement. The arrays are
+   * matched by position and the product names must be distinct. Existing products get the new cost and the amount is
+   * added to their stock, products of other sellers are left unchanged and not returned. Created products are
+   * returned with version 0.
+   */
+  @Query("""
+      INSERT INTO product (seller_id, product_name, cost, amount_available, created_date, last_modified_date, version)
+      SELECT :sellerId, line.product_name, line.cost, line.amount, now(), now(), 0
+      FROM unnest(CAST(:productNames AS varchar[]), CAST(:costs AS int[]), CAST(:amounts AS int[]))
+          AS line(product_name, cost, amount)
+      ON CONFLICT (product_name) DO UPDATE
+      SET cost = EXCLUDED.cost, amount_available = product.amount_available + EXCLUDED.amount_available,
+          last_modified_date = now(), version = product.version + 1
+      WHERE product.seller_id = EXCLUDED.seller_id
+      RETURNING *""")
+  Flux<Product> importAll(UUID sellerId, String[] productNames, Integer[] costs, Integer[] amounts);
 }
@@ -1,29 +1,100 @@
 package com.jocotech.vendingmachine.product;
 
+import com.jocotech.vendingmachine.common.notification.ChangeNotification;
+import com.jocotech.vendingmachine.common.notification.ChangeNotifications;
+import com.jocotech.vendingmachine.common.persistence.ConflictRetry;
 import com.jocotech.vendingmachine.common.security.login.LoginService;
+import com.jocotech.vendingmachine.common.transaction.TransactionCallbacks;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Function;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class ProductService {
+  static final int MAX_PAGE_SIZE = 500;
+  private static final int MAX_PRODUCT_NAME_LENGTH = 255;
+  private static final String INVALID_COST = "Product cost must be in multiples of 5";
+  // lowest possible id, the start of the first page
+  private static final UUID FIRST_ID = new UUID(0, 0);
+
   private final ProductRepository productRepository;
   private final LoginService loginService;
+  private final ProductCache productCache;
+  private final ConflictRetry conflictRetry;
+  private final ProductEvents productEvents;
+  // present when other instances are notified of changes to the products they have cached
+  private final Optional<ChangeNotifications> changeNotifications;
 
   public Flux<Product> getAllProducts() {
-    return productRepository.findAll();
+    return productCache.getAll();
+  }
+
+  /**
+   * Keyset pagination in id order, the last id of a page is the cursor of the next one.
+   *
+   * @param after id of the last product of the previous page, null for the first page
+   * @param size  maximum number of products to return
+   * @should page through the products in id order
+   * @should reject a page size outside of 1 to 500
+   */
+  public Flux<Product> getProducts(String after, int size) {
+    validatePageSize(size);
+    return productCache.getPage(after == null ? FIRST_ID : UUID.fromString(after), size);
+  }
+
+  /**
+   * The products of the current seller, keyset paginated in id order like {@link #getProducts(String, int)}. Read from
+   * the database by the seller's index rather than filtering the whole catalog.
+   */
+  public Flux<Product> getSellerProducts(String after, int size) {
+    validatePageSize(size);
+    var afterId = after == null ? FIRST_ID : UUID.fromString(after);
+    return loginService.getCurrentUserId()
+        .flatMapMany(sellerId -> productRepository.findAllBySellerIdAndIdGreaterThanOrderById(sellerId, afterId,
+            PageRequest.of(0, size)));
+  }
+
+  private static void validatePageSize(int size) {
+    if (size <= 0 || size > MAX_PAGE_SIZE) {
+      throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+    }
+  }
+
+  /**
+   * The current state of all products followed by every committed change, including purchases.
+   */
+  public Flux<ProductEvents.ProductEvent> streamProducts() {
+    return productEvents.subscribe(productCache.getAll());
   }
 
   public Mono<Product> getProductById(String id) {
-    return productRepository.findById(UUID.fromString(id));
+    return productCache.get(UUID.fromString(id));
+  }
+
+  /**
+   * Reads the product from the database instead of the cache and locks it until the end of the current transaction,
+   * for purchases that must be priced with its current cost.
+   */
+  public Mono<Product> lockProduct(String id) {
+    return productRepository.findByIdForUpdate(UUID.fromString(id));
   }
 
   public Mono<Product> createProduct(ProductController.CreateProductRequest createProductRequest) {
@@ -35,23 +106,191 @@ public class ProductService {
             .productName(createProductRequest.productName())
             .cost(createProductRequest.cost())
             .amountAvailable(createProductRequest.amountAvailable())
-            .build()));
+            .build()))
+        .flatMap(this::cacheAfterCommit);
   }
 
   // Ensure cost is in multiples of 5
   private void validateCost(int cost) {
-    if (cost % 5 != 0) {
-      throw new IllegalArgumentException("Product cost must be in multiples of 5");
+    if (!isValidCost(cost)) {
+      throw new IllegalArgumentException(INVALID_COST);
     }
   }
 
+  private static boolean isValidCost(int cost) {
+    return cost % 5 == 0;
+  }
+
+  /**
+   * Imports a chunk of lines of a bulk upload with a single statement. The lines are validated together and the
+   * ownership of existing products is checked by the statement itself, lines of the same product are merged with the
+   * last cost and the sum of the amounts. A chunk is not part of a transaction, it is committed once the statement
+   * returns.
+   *
+   * @return the result of every line, in line order
+   * @should create and restock the valid lines and reject the others
+   * @should reject the products of other sellers
+   * @should reject a cost that is not positive
+   */
+  public Flux<ProductImport.Result> importProducts(List<ProductImport.Line> lines) {
+    var errors = new HashMap<Long, String>();
+    var products = new LinkedHashMap<String, List<ProductImport.Line>>();
+    for (var line : lines) {
+      var error = line.error() != null ? line.error() : validateImport(line);
+      if (error != null) {
+        errors.put(line.number(), error);
+      } else {
+        products.computeIfAbsent(line.productName(), name -> new ArrayList<>()).add(line);
+      }
+    }
+    if (products.isEmpty()) {
+      return Flux.fromIterable(importResults(lines, errors, Map.of()));
+    }
+    var names = products.keySet().toArray(String[]::new);
+    var costs = products.values().stream().map(same -> same.get(same.size() - 1).cost()).toArray(Integer[]::new);
+    var amounts = products.values().stream()
+        .map(same -> same.stream().mapToInt(ProductImport.Line::amount).sum())
+        .toArray(Integer[]::new);
+    return loginService.getCurrentUserId()
+        .flatMapMany(sellerId -> productRepository.importAll(sellerId, names, costs, amounts))
+        .collectMap(Product::getProductName)
+        .flatMap(imported -> {
+          imported.values().forEach(product -> {
+            productCache.put(product);
+            productEvents.updated(product);
+          });
+          return notifyChanges(imported.values().stream().map(Product::getId).toList())
+              .thenReturn(imported);
+        })
+        .map(imported -> importResults(lines, errors, imported))
+        .onErrorResume(e -> {
+          log.error("Failed to import {} products", names.length, e);
+          products.values().forEach(same -> same.forEach(line -> errors.put(line.number(), "Import failed")));
+          return Mono.just(importResults(lines, errors, Map.of()));
+        })
+        .flatMapIterable(Function.identity());
+  }
+
+  private static String validateImport(ProductImport.Line line) {
+    if (StringUtils.isBlank(line.productName())) {
+      return "Product name is required";
+    }
+    if (line.productName().length() > MAX_PRODUCT_NAME_LENGTH) {
+      return "Product name must be at most " + MAX_PRODUCT_NAME_LENGTH + " characters";
+    }
+    if (line.cost() == null || line.amount() == null) {
+      return "Cost and amount are required";
+    }
+    if (line.cost() <= 0) {
+      return "Cost must be positive";
+    }
+    if (!isValidCost(line.cost())) {
+      return INVALID_COST;
+    }
+    if (line.amount() < 0) {
+      return "Amount must not be negative";
+    }
+    return null;
+  }
+
+  private static List<ProductImport.Result> importResults(List<ProductImport.Line> lines, Map<Long, String> errors,
+                                                         Map<String, Product> imported) {
+    return lines.stream()
+        .map(line -> {
+          if (errors.containsKey(line.number())) {
+            return ProductImport.Result.rejected(line, errors.get(line.number()));
+          }
+          var product = imported.get(line.productName());
+          return product == null
+              ? ProductImport.Result.rejected(line, "Product belongs to another seller")
+              : ProductImport.Result.imported(line, product);
+        })
+        .toList();
+  }
+
+  /**
+   * Reads, changes and saves the product, all over again if it was changed in the meantime (e.g. by a purchase).
+   */
   public Mono<Product> update(String id, ProductController.UpdateProductRequest updateProductRequest) {
-    return findProductAndValidateUserIsSeller(id)
-        .flatMap(existingProduct -> update(existingProduct, updateProductRequest));
+    return conflictRetry.retryOnConflict("product.update", findProductAndValidateUserIsSeller(id)
+        .flatMap(existingProduct -> update(existingProduct, updateProductRequest)));
   }
 
   public Mono<Product> update(Product product) {
-    return productRepository.save(product);
+    return productRepository.save(product)
+        .flatMap(this::cacheAfterCommit);
+  }
+
+  /**
+   * Atomically removes the given amount from the product's stock.
+   * Completes empty if the product doesn't exist or there are not enough items available.
+   *
+   * @should cache the product once the transaction commits
+   * @should not cache the product if the transaction rolls back
+   */
+  public Mono<Product> decrementStock(String id, int amount) {
+    return productRepository.decrementStock(UUID.fromString(id), amount)
+        .flatMap(this::cacheAfterCommit);
+  }
+
+  /**
+   * Atomically removes the given amounts from several products with one statement.
+   * Only the products that had enough items available are changed and returned.
+   */
+  public Flux<Product> decrementStock(Map<UUID, Integer> amounts) {
+    var ids = amounts.keySet().toArray(UUID[]::new);
+    var values = Arrays.stream(ids).map(amounts::get).toArray(Integer[]::new);
+    return productRepository.decrementStock(ids, values)
+        .flatMap(this::cacheAfterCommit);
+  }
+
+  // writes may be part of a transaction, the cache and the stream must only see them once they're committed
+  private Mono<Product> cacheAfterCommit(Product product) {
+    return TransactionCallbacks.afterCommit(() -> {
+          productCache.put(product);
+          productEvents.updated(product);
+        })
+        .then(notifyChange(product.getId()))
+        .thenReturn(product);
+  }
+
+  private Mono<Void> notifyChanges(List<UUID> ids) {
+    return changeNotifications
+        .map(notifications -> notifications.publishAll(ChangeNotification.PRODUCT, ids))
+        .orElseGet(Mono::empty);
+  }
+
+  private Mono<Void> notifyChange(UUID id) {
+    return changeNotifications
+        .map(notifications -> notifications.publish(ChangeNotification.PRODUCT, id))
+        .orElseGet(Mono::empty);
+  }
+
+  /**
+   * Refreshes the cache and the stream with the products changed by other instances.
+   *
+   * @should refresh the cached product
+   * @should evict a deleted product
+   */
+  @EventListener
+  public void onChangeNotification(ChangeNotification notification) {
+    if (notification.isResync()) {
+      productCache.reload().subscribe();
+    } else if (notification.isAbout(ChangeNotification.PRODUCT)) {
+      var id = notification.id();
+      productRepository.findById(id)
+          .doOnNext(product -> {
+            productCache.put(product);
+            productEvents.updated(product);
+          })
+          .switchIfEmpty(Mono.fromRunnable(() -> {
+            productCache.evict(id);
+            productEvents.deleted(id);
+          }))
+          .doOnError(e -> log.error("Failed to refresh product {}", id, e))
+          .onErrorResume(e -> Mono.empty())
+          .subscribe();
+    }
   }
 
   private Mono<Product> findProductAndValidateUserIsSeller(String id) {
@@ -81,11 +320,20 @@ public class ProductService {
     if (StringUtils.isNotBlank(updateProductRequest.productName())) {
       existingProduct.setProductName(updateProductRequest.productName());
     }
-    return productRepository.save(existingProduct);
+    return productRepository.save(existingProduct)
+        .flatMap(this::cacheAfterCommit);
   }
 
+  /**
+   * @should evict the product once the transaction commits
+   */
   public Mono<Void> deleteProduct(String id) {
     return findProductAndValidateUserIsSeller(id)
-        .flatMap(productRepository::delete);
+        .flatMap(product -> productRepository.delete(product)
+            .then(TransactionCallbacks.afterCommit(() -> {
+              productCache.evict(product.getId());
+              productEvents.deleted(product.getId());
+            }))
+            .then(notifyChange(product.getId())));
   }
 }
@@ -0,0 +1,162 @@
+package com.jocotech.vendingmachine.user;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Write-behind deposits: coins are appended to the deposit ledger instead of updating the user row. A single writer
+ * takes the coins waiting in the queue and inserts them with one statement, every coin is acknowledged once the insert
+ * holding it is committed. The ledger is folded into {@link User#getDeposit()} periodically and before every
+ * withdrawal or reset, so reads of the user row may lag behind the ledger by at most the fold interval.
+ */
+@Slf4j
+@Component
+@Profile("!in-memory")
+@ConditionalOnProperty(name = "machine.deposit-ledger.enabled", havingValue = "true")
+public class DepositLedger {
+  private final DepositLedgerRepository depositLedgerRepository;
+  private final int queueCapacity;
+  private final int maxBatchSize;
+  private final DistributionSummary batchSizes;
+  private final Queue<Waiting> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicBoolean draining = new AtomicBoolean();
+
+  private record Waiting(UUID userId, int amount, Sinks.One<Integer> deposit) {}
+
+  public DepositLedger(DepositLedgerRepository depositLedgerRepository,
+                       @Value("${machine.deposit-ledger.queue-capacity}") int queueCapacity,
+                       @Value("${machine.deposit-ledger.max-batch-size}") int maxBatchSize,
+                       MeterRegistry meterRegistry) {
+    this.depositLedgerRepository = depositLedgerRepository;
+    this.queueCapacity = queueCapacity;
+    this.maxBatchSize = maxBatchSize;
+    this.batchSizes = DistributionSummary.builder("deposit.ledger.batch.size")
+        .description("Number of coins written to the deposit ledger with one insert")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Appends the amount to the ledger of the user.
+   *
+   * @return the deposit of the user including the amount, once it is durable
+   * @should append the amount and return the deposit of the user
+   * @should complete empty if the user does not exist
+   * @should write the deposits waiting while an insert runs with the next insert
+   * @should reject the deposit if the queue is full
+   * @should fail the deposits of a failed insert and go on with the next one
+   */
+  public Mono<Integer> append(UUID userId, int amount) {
+    return appendAll(userId, List.of(amount));
+  }
+
+  /**
+   * Appends every amount to the ledger of the user as an entry of its own.
+   *
+   * @return the deposit of the user including all the amounts, once they are durable
+   * @should append every amount as an entry of its own
+   * @should reject all the amounts if they don't fit in the queue
+   */
+  public Mono<Integer> appendAll(UUID userId, List<Integer> amounts) {
+    return Mono.defer(() -> {
+      if (size.addAndGet(amounts.size()) > queueCapacity) {
+        size.addAndGet(-amounts.size());
+        return Mono.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+            "Too many deposits waiting, please try again later."));
+      }
+      var deposits = amounts.stream()
+          .map(amount -> {
+            var deposit = Sinks.<Integer>one();
+            queue.add(new Waiting(userId, amount, deposit));
+            return deposit.asMono();
+          })
+          .toList();
+      drain();
+      // the entries are written in order, the deposit of the last one includes all the others
+      return Flux.concat(deposits).takeLast(1).next();
+    });
+  }
+
+  /**
+   * Adds the unfolded ledger entries of the user to its deposit.
+   *
+   * @return the deposit of the user, empty if the user does not exist
+   * @should fold the ledger of the user
+   */
+  public Mono<Integer> fold(UUID userId) {
+    return depositLedgerRepository.fold(userId);
+  }
+
+  /**
+   * @should fold the ledger of every user
+   * @should ignore a failed fold
+   */
+  @Scheduled(fixedDelayString = "${machine.deposit-ledger.fold-interval}")
+  public void foldAll() {
+    depositLedgerRepository.foldAll()
+        .doOnNext(users -> log.debug("Deposit ledger folded for {} users", users))
+        .doOnError(e -> log.error("Failed to fold the deposit ledger", e))
+        .onErrorResume(e -> Mono.empty())
+        .subscribe();
+  }
+
+  // only one insert runs at a time, whoever finds the writer idle starts the next one
+  private void drain() {
+    if (!draining.compareAndSet(false, true)) {
+      return;
+    }
+    var batch = new ArrayList<Waiting>();
+    Waiting waiting;
+    while (batch.size() < maxBatchSize && (waiting = queue.poll()) != null) {
+      batch.add(waiting);
+    }
+    size.addAndGet(-batch.size());
+    if (batch.isEmpty()) {
+      draining.set(false);
+      if (!queue.isEmpty()) {
+        drain();
+      }
+      return;
+    }
+    batchSizes.record(batch.size());
+    depositLedgerRepository.append(batch.stream().map(Waiting::userId).toArray(UUID[]::new),
+            batch.stream().map(Waiting::amount).toArray(Integer[]::new))
+        .collectMap(DepositLedgerRepository.UserDeposit::userId, DepositLedgerRepository.UserDeposit::deposit)
+        .doFinally(signal -> {
+          draining.set(false);
+          drain();
+        })
+        .subscribe(deposits -> batch.forEach(entry -> {
+          var deposit = deposits.get(entry.userId());
+          if (deposit == null) {
+            entry.deposit().tryEmitEmpty();
+          } else {
+            entry.deposit().tryEmitValue(deposit);
+          }
+        }), error -> fail(batch, error));
+  }
+
+  private static void fail(List<Waiting> batch, Throwable error) {
+    log.error("Failed to write {} deposits to the ledger", batch.size(), error);
+    batch.forEach(entry -> entry.deposit().tryEmitError(error));
+  }
+}
@@ -0,0 +1,28 @@
+package com.jocotech.vendingmachine.user;
+
+import lombok.Builder;
+import lombok.Data;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * A coin deposited to a user. Entries are never changed apart from being marked folded once their amount has been
+ * added to {@link User#getDeposit()}.
+ */
+@Data
+@Builder(toBuilder = true)
+@Table("deposit_ledger")
+public class DepositLedgerEntry {
+
+  @Id
+  private Long id;
+  private UUID userId;
+  private int amount;
+  private boolean folded;
+  @CreatedDate
+  private LocalDateTime createdDate;
+}
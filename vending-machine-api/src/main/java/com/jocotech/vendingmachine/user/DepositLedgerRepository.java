@@ -0,0 +1,64 @@
+package com.jocotech.vendingmachine.user;
+
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.UUID;
+
+@Repository
+public interface DepositLedgerRepository extends ReactiveCrudRepository<DepositLedgerEntry, Long> {
+
+  record UserDeposit(UUID userId, int deposit) {}
+
+  /**
+   * Appends several entries with a single insert, {@code userIds} and {@code amounts} are matched by position.
+   * Returns the deposit of every user in the batch including the new entries, users that do not exist are skipped.
+   */
+  @Query("""
+      WITH inserted AS (
+        INSERT INTO deposit_ledger (user_id, amount, created_date)
+        SELECT line.user_id, line.amount, now()
+        FROM unnest(CAST(:userIds AS uuid[]), CAST(:amounts AS int[])) AS line(user_id, amount)
+        WHERE EXISTS (SELECT 1 FROM users u WHERE u.id = line.user_id)
+        RETURNING user_id, amount),
+      batch AS (SELECT user_id, sum(amount) AS amount FROM inserted GROUP BY user_id)
+      SELECT u.id AS user_id, CAST(u.deposit + b.amount + COALESCE((
+        SELECT sum(l.amount) FROM deposit_ledger l WHERE l.user_id = u.id AND NOT l.folded), 0) AS int) AS deposit
+      FROM users u JOIN batch b ON b.user_id = u.id""")
+  Flux<UserDeposit> append(UUID[] userIds, Integer[] amounts);
+
+  /**
+   * Adds the unfolded entries of the user to its deposit and marks them folded in a single statement.
+   * Completes empty if the user does not exist, otherwise returns the new deposit.
+   */
+  @Query("""
+      WITH folded AS (
+        UPDATE deposit_ledger SET folded = true
+        WHERE user_id = :userId AND NOT folded
+        RETURNING amount)
+      UPDATE users
+      SET deposit = deposit + COALESCE((SELECT sum(amount) FROM folded), 0), last_modified_date = now(), version = version + 1
+      WHERE id = :userId
+      RETURNING deposit""")
+  Mono<Integer> fold(UUID userId);
+
+  /**
+   * Folds the unfolded entries of every user in a single statement and returns the number of users updated.
+   */
+  @Modifying
+  @Query("""
+      WITH folded AS (
+        UPDATE deposit_ledger SET folded = true
+        WHERE NOT folded
+        RETURNING user_id, amount),
+      totals AS (SELECT user_id, sum(amount) AS amount FROM folded GROUP BY user_id)
+      UPDATE users u
+      SET deposit = u.deposit + t.amount, last_modified_date = now(), version = u.version + 1
+      FROM totals t
+      WHERE u.id = t.user_id""")
+  Mono<Integer> foldAll();
+}
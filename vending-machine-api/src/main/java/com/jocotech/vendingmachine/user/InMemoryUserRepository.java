@@ -0,0 +1,94 @@
+package com.jocotech.vendingmachine.user;
+
+import com.jocotech.vendingmachine.common.memory.InMemoryCrudRepository;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.UUID;
+
+/**
+ * {@link UserRepository} of the {@code in-memory} profile.
+ */
+@Repository
+@Profile("in-memory")
+public class InMemoryUserRepository extends InMemoryCrudRepository<User> implements UserRepository {
+
+  public InMemoryUserRepository() {
+    super(Comparator.naturalOrder());
+  }
+
+  @Override
+  public Mono<User> findByUsername(String username) {
+    return findByUniqueKey(username);
+  }
+
+  @Override
+  public Mono<Integer> deposit(UUID id, int amount) {
+    return update(id,
+        user -> withDeposit(user, user.getDeposit() + amount),
+        user -> withDeposit(user, user.getDeposit() - amount))
+        .map(User::getDeposit);
+  }
+
+  @Override
+  public Mono<Integer> resetDeposit(UUID id) {
+    var reset = new int[1];
+    return update(id,
+        user -> {
+          // the last application is the one kept, so it records the deposit that was actually reset
+          reset[0] = user.getDeposit();
+          return withDeposit(user, 0);
+        },
+        user -> withDeposit(user, user.getDeposit() + reset[0]))
+        .map(User::getDeposit);
+  }
+
+  @Override
+  public Mono<Integer> withdraw(UUID id, int amount) {
+    return update(id,
+        user -> user.getDeposit() >= amount ? withDeposit(user, user.getDeposit() - amount) : null,
+        user -> withDeposit(user, user.getDeposit() + amount))
+        .map(User::getDeposit);
+  }
+
+  @Override
+  protected UUID idOf(User user) {
+    return user.getId();
+  }
+
+  @Override
+  protected Long versionOf(User user) {
+    return user.getVersion();
+  }
+
+  @Override
+  protected User copy(User user) {
+    return user.toBuilder().build();
+  }
+
+  @Override
+  protected User prepareForSave(User user, User existing, LocalDateTime now) {
+    return user.toBuilder()
+        .id(existing == null ? UUID.randomUUID() : existing.getId())
+        .createdDate(existing == null ? now : existing.getCreatedDate())
+        .lastModifiedDate(now)
+        .version(existing == null ? 0 : existing.getVersion() + 1)
+        .build();
+  }
+
+  @Override
+  protected String uniqueKeyOf(User user) {
+    return user.getUsername();
+  }
+
+  private static User withDeposit(User user, int deposit) {
+    return user.toBuilder()
+        .deposit(deposit)
+        .lastModifiedDate(LocalDateTime.now())
+        .version(user.getVersion() + 1)
+        .build();
+  }
+}
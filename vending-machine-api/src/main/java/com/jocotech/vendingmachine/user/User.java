@@ -5,6 +5,7 @@ import lombok.Data;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.relational.core.mapping.Table;
 
 import java.time.LocalDateTime;
@@ -21,8 +22,12 @@ public class User {
   private String password;
   private Role role;
   private int deposit;
+  // refresh tokens issued before this are revoked
+  private LocalDateTime credentialsChangedDate;
   @CreatedDate
   private LocalDateTime createdDate;
   @LastModifiedDate
   private LocalDateTime lastModifiedDate;
+  @Version
+  private Long version;
 }
@@ -1,5 +1,6 @@
 package com.jocotech.vendingmachine.user;
 
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import org.springframework.stereotype.Repository;
 import reactor.core.publisher.Mono;
@@ -9,4 +10,36 @@ import java.util.UUID;
 @Repository
 public interface UserRepository extends ReactiveCrudRepository<User, UUID> {
   Mono<User> findByUsername(String username);
+
+  /**
+   * Adds {@code amount} to the user's deposit in a single statement and returns the new deposit.
+   * Completes empty if the user does not exist.
+   */
+  @Query("""
+      UPDATE users
+      SET deposit = deposit + :amount, last_modified_date = now(), version = version + 1
+      WHERE id = :id
+      RETURNING deposit""")
+  Mono<Integer> deposit(UUID id, int amount);
+
+  /**
+   * Sets the user's deposit to 0 in a single statement. Completes empty if the user does not exist.
+   */
+  @Query("""
+      UPDATE users
+      SET deposit = 0, last_modified_date = now(), version = version + 1
+      WHERE id = :id
+      RETURNING deposit""")
+  Mono<Integer> resetDeposit(UUID id);
+
+  /**
+   * Deducts {@code amount} from the user's deposit in a single statement, only if the deposit covers it.
+   * Completes empty if the user does not exist or has insufficient funds, otherwise returns the remaining deposit.
+   */
+  @Query("""
+      UPDATE users
+      SET deposit = deposit - :amount, last_modified_date = now(), version = version + 1
+      WHERE id = :id AND deposit >= :amount
+      RETURNING deposit""")
+  Mono<Integer> withdraw(UUID id, int amount);
 }
@@ -1,13 +1,20 @@
 package com.jocotech.vendingmachine.user;
 
 
+import com.jocotech.vendingmachine.common.notification.ChangeNotification;
+import com.jocotech.vendingmachine.common.notification.ChangeNotifications;
+import com.jocotech.vendingmachine.common.persistence.ConflictRetry;
 import com.jocotech.vendingmachine.common.security.InvalidUserException;
+import com.jocotech.vendingmachine.common.security.PasswordHasher;
+import com.jocotech.vendingmachine.common.security.PrincipalCache;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 @Slf4j
@@ -16,12 +23,21 @@ import java.util.UUID;
 public class UserService {
 
   private final UserRepository userRepository;
-  private final PasswordEncoder passwordEncoder;
+  private final PasswordHasher passwordHasher;
+  private final PrincipalCache principalCache;
+  private final ConflictRetry conflictRetry;
+  // present when deposits are written behind to the deposit ledger
+  private final Optional<DepositLedger> depositLedger;
+  // present when other instances are notified of changes to the users they may have cached
+  private final Optional<ChangeNotifications> changeNotifications;
 
   public Mono<User> createUser(User user) {
     log.trace("Creating new user user: {}", user.getUsername());
-    user.setPassword(passwordEncoder.encode(user.getPassword()));
-    return userRepository.save(user)
+    return passwordHasher.encode(user.getPassword())
+        .flatMap(password -> {
+          user.setPassword(password);
+          return userRepository.save(user);
+        })
         .doOnSuccess(savedUser -> log.info("User {} created successfully", savedUser.getUsername()));
   }
 
@@ -32,7 +48,10 @@ public class UserService {
 
   public Mono<Void> deleteById(String id) {
     log.trace("Deleting user by id: {}", id);
-    return userRepository.deleteById(UUID.fromString(id))
+    var userId = UUID.fromString(id);
+    return userRepository.deleteById(userId)
+        .then(notifyChange(userId))
+        .doOnSuccess(v -> principalCache.invalidate(userId))
         .doOnSuccess(v -> log.info("User with id {} deleted successfully", id))
         .onErrorMap(ex -> new RuntimeException("Error occurred while deleting user by id"));
   }
@@ -45,7 +64,7 @@ public class UserService {
 
   public Mono<User> updateUser(String id, UserController.UpdateUserRequest updateUserRequest) {
     log.trace("Updating user: {} with {}", id, updateUserRequest);
-    return userRepository.findById(UUID.fromString(id))
+    return conflictRetry.retryOnConflict("user.update", userRepository.findById(UUID.fromString(id))
         .flatMap(existingUser -> {
           if (updateUserRequest.username() != null) {
             existingUser.setUsername(updateUserRequest.username());
@@ -54,23 +73,114 @@ public class UserService {
             existingUser.setRole(updateUserRequest.role());
           }
           return userRepository.save(existingUser);
-        });
+        }))
+        .doOnNext(savedUser -> principalCache.invalidate(savedUser.getId()))
+        .flatMap(savedUser -> notifyChange(savedUser.getId()).thenReturn(savedUser));
   }
 
   public Mono<User> update(User user) {
     log.trace("Updating user: {}", user);
-    return userRepository.save(user);
+    return userRepository.save(user)
+        .doOnNext(savedUser -> principalCache.invalidate(savedUser.getId()))
+        .flatMap(savedUser -> notifyChange(savedUser.getId()).thenReturn(savedUser));
+  }
+
+  /**
+   * Atomically adds the given amount to the user's deposit and returns the new deposit.
+   * With the deposit ledger the amount is appended to the ledger instead of updating the user.
+   */
+  public Mono<Integer> deposit(UUID id, int amount) {
+    log.trace("Depositing {} to user: {}", amount, id);
+    return depositLedger
+        .map(ledger -> ledger.append(id, amount))
+        .orElseGet(() -> userRepository.deposit(id, amount));
+  }
+
+  /**
+   * Atomically adds several coins to the user's deposit and returns the new deposit. Without the deposit ledger their
+   * total is added with one update, with the ledger every coin is appended as an entry of its own.
+   *
+   * @should append every coin to the deposit ledger
+   */
+  public Mono<Integer> depositAll(UUID id, List<Integer> coins) {
+    log.trace("Depositing {} to user: {}", coins, id);
+    return depositLedger
+        .map(ledger -> ledger.appendAll(id, coins))
+        .orElseGet(() -> userRepository.deposit(id, coins.stream().mapToInt(Integer::intValue).sum()));
+  }
+
+  /**
+   * The current deposit of the user, including the deposit ledger entries that are not folded yet.
+   * Completes empty if the user doesn't exist.
+   *
+   * @should fold the deposit ledger before reading the deposit
+   */
+  public Mono<Integer> getDeposit(UUID id) {
+    return depositLedger
+        .map(ledger -> ledger.fold(id))
+        .orElseGet(() -> userRepository.findById(id).map(User::getDeposit));
+  }
+
+  /**
+   * Atomically gives back an amount withdrawn in the current transaction and returns the new deposit. Unlike
+   * {@link #deposit} it never goes through the deposit ledger, so a rollback undoes the refund along with the
+   * withdrawal.
+   *
+   * @should add the amount to the deposit without the deposit ledger
+   */
+  public Mono<Integer> refund(UUID id, int amount) {
+    log.trace("Refunding {} to user: {}", amount, id);
+    return userRepository.deposit(id, amount);
+  }
+
+  /**
+   * Atomically sets the user's deposit to 0.
+   */
+  public Mono<Integer> resetDeposit(UUID id) {
+    log.trace("Resetting deposit of user: {}", id);
+    return foldDepositLedger(id)
+        .then(userRepository.resetDeposit(id));
+  }
+
+  /**
+   * Atomically deducts the given amount from the user's deposit.
+   * Completes empty if the user doesn't exist or the deposit doesn't cover the amount.
+   */
+  public Mono<Integer> withdraw(UUID id, int amount) {
+    log.trace("Withdrawing {} from user: {}", amount, id);
+    return foldDepositLedger(id)
+        .then(userRepository.withdraw(id, amount));
+  }
+
+  // the coins still in the ledger must be part of the deposit before it is spent or reset
+  private Mono<Integer> foldDepositLedger(UUID id) {
+    return depositLedger
+        .map(ledger -> ledger.fold(id))
+        .orElseGet(Mono::empty);
+  }
+
+  private Mono<Void> notifyChange(UUID id) {
+    return changeNotifications
+        .map(notifications -> notifications.publish(ChangeNotification.USER, id))
+        .orElseGet(Mono::empty);
   }
 
   public Mono<User> changePassword(String id, UserController.ChangePasswordRequest request) {
     log.trace("Updating user: {} password", id);
     return userRepository.findById(UUID.fromString(id))
-        .filter(user -> passwordEncoder.matches(request.existingPassword(), user.getPassword()))
+        .filterWhen(user -> passwordHasher.matches(request.existingPassword(), user.getPassword()))
         .switchIfEmpty(Mono.error(InvalidUserException::new))
-        .flatMap(existingUser -> {
-          existingUser.setPassword(passwordEncoder.encode(request.newPassword()));
-          return userRepository.save(existingUser);
-        })
+        // the password was checked once, only the new hash is written again on a conflict
+        .flatMap(existingUser -> passwordHasher.encode(request.newPassword())
+            .flatMap(password -> conflictRetry.retryOnConflict("user.changePassword",
+                userRepository.findById(existingUser.getId())
+                    .flatMap(user -> {
+                      user.setPassword(password);
+                      user.setCredentialsChangedDate(LocalDateTime.now());
+                      return userRepository.save(user);
+                    }))))
+        .doOnNext(savedUser -> principalCache.invalidate(savedUser.getId()))
+        .flatMap(savedUser -> notifyChange(savedUser.getId()).thenReturn(savedUser))
         .doOnSuccess(savedUser -> log.info("Password changed for user: {}", savedUser.getUsername()));
   }
 }
@@ -0,0 +1,66 @@
+package com.jocotech.vendingmachine.common.error;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jocotech.vendingmachine.machine.InsufficientFundsException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.test.StepVerifier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WebfluxGlobalErrorHandlerTest {
+  private SimpleMeterRegistry meterRegistry;
+  private WebfluxGlobalErrorHandler errorHandler;
+  private MockServerWebExchange exchange;
+
+  @BeforeEach
+  public void setup() throws JsonProcessingException {
+    var objectMapper = new ObjectMapper();
+    meterRegistry = new SimpleMeterRegistry();
+    errorHandler = new WebfluxGlobalErrorHandler(objectMapper, new ErrorCatalog(objectMapper, meterRegistry));
+    exchange = MockServerWebExchange.from(MockServerHttpRequest.post("/buy"));
+  }
+
+  /**
+   * @verifies report a domain exception with its precomputed response
+   * @see WebfluxGlobalErrorHandler#handle(org.springframework.web.server.ServerWebExchange, Throwable)
+   */
+  @Test
+  void handle_shouldReportADomainExceptionWithItsPrecomputedResponse() {
+    // Arrange
+    var exception = new InsufficientFundsException();
+
+    // Act & Assert
+    StepVerifier.create(errorHandler.handle(exchange, exception))
+        .verifyComplete();
+    assertThat(exception.getStackTrace()).isEmpty();
+    assertThat(exchange.getResponse().getStatusCode()).isEqualTo(HttpStatus.PAYMENT_REQUIRED);
+    StepVerifier.create(exchange.getResponse().getBodyAsString())
+        .expectNext("{\"code\":\"INSUFFICIENT_FUNDS\",\"message\":\"Insufficient funds, please deposit more coins.\"}")
+        .verifyComplete();
+    assertThat(meterRegistry.get("http.domain.errors").tag("error", "INSUFFICIENT_FUNDS").counter().count())
+        .isEqualTo(1);
+  }
+
+  /**
+   * @verifies report an unknown exception as internal server error
+   * @see WebfluxGlobalErrorHandler#handle(org.springframework.web.server.ServerWebExchange, Throwable)
+   */
+  @Test
+  void handle_shouldReportAnUnknownExceptionAsInternalServerError() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(errorHandler.handle(exchange, new IllegalStateException("broken")))
+        .verifyComplete();
+    assertThat(exchange.getResponse().getStatusCode()).isEqualTo(HttpStatus.INTERNAL_SERVER_ERROR);
+    StepVerifier.create(exchange.getResponse().getBodyAsString())
+        .expectNext("{\"message\":\"broken\"}")
+        .verifyComplete();
+  }
+}
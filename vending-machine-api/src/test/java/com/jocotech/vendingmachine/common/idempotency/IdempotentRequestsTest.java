@@ -0,0 +1,243 @@
+package com.jocotech.vendingmachine.common.idempotency;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jocotech.vendingmachine.common.security.login.LoginService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class IdempotentRequestsTest {
+  private static final UUID USER_ID = UUID.randomUUID();
+  private static final Request BODY = new Request(1);
+
+  @Mock
+  private LoginService loginService;
+
+  private InMemoryIdempotencyKeyRepository idempotencyKeyRepository;
+  private AtomicInteger executions;
+
+  record Request(int value) {}
+  record Response(int value) {}
+
+  @BeforeEach
+  public void setup() {
+    idempotencyKeyRepository = new InMemoryIdempotencyKeyRepository();
+    executions = new AtomicInteger();
+  }
+
+  private IdempotentRequests idempotentRequests() {
+    return new IdempotentRequests(idempotencyKeyRepository, loginService, new ObjectMapper(), 100, 60,
+        new SimpleMeterRegistry());
+  }
+
+  private Mono<Response> request() {
+    return Mono.fromSupplier(() -> new Response(executions.incrementAndGet()));
+  }
+
+  /**
+   * @verifies run the request if there is no key
+   * @see IdempotentRequests#execute(String, String, Object, Class, Mono)
+   */
+  @Test
+  void execute_shouldRunTheRequestIfThereIsNoKey() {
+    // Arrange
+    var idempotentRequests = idempotentRequests();
+
+    // Act & Assert
+    StepVerifier.create(idempotentRequests.execute(null, "test", BODY, Response.class, request()))
+        .expectNext(new Response(1))
+        .verifyComplete();
+    StepVerifier.create(idempotentRequests.execute(null, "test", BODY, Response.class, request()))
+        .expectNext(new Response(2))
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies run the request and store its response if the key is new
+   * @see IdempotentRequests#execute(String, String, Object, Class, Mono)
+   */
+  @Test
+  void execute_shouldRunTheRequestAndStoreItsResponseIfTheKeyIsNew() {
+    // Arrange
+    when(loginService.getCurrentUserId()).thenReturn(Mono.just(USER_ID));
+
+    // Act & Assert
+    StepVerifier.create(idempotentRequests().execute("key", "test", BODY, Response.class, request()))
+        .expectNext(new Response(1))
+        .verifyComplete();
+    StepVerifier.create(idempotencyKeyRepository.findAll())
+        .assertNext(stored -> assertThat(stored.getResponse()).isEqualTo("{\"value\":1}"))
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies replay the cached response without running the request again
+   * @see IdempotentRequests#execute(String, String, Object, Class, Mono)
+   */
+  @Test
+  void execute_shouldReplayTheCachedResponseWithoutRunningTheRequestAgain() {
+    // Arrange
+    when(loginService.getCurrentUserId()).thenReturn(Mono.just(USER_ID));
+    var idempotentRequests = idempotentRequests();
+    idempotentRequests.execute("key", "test", BODY, Response.class, request()).block();
+
+    // Act & Assert
+    StepVerifier.create(idempotentRequests.execute("key", "test", BODY, Response.class, request()))
+        .expectNext(new Response(1))
+        .verifyComplete();
+    StepVerifier.create(idempotentRequests.execute("other", "test", BODY, Response.class, request()))
+        .expectNext(new Response(2))
+        .verifyComplete();
+    assertThat(executions.get()).isEqualTo(2);
+  }
+
+  /**
+   * @verifies replay the stored response if it is not cached
+   * @see IdempotentRequests#execute(String, String, Object, Class, Mono)
+   */
+  @Test
+  void execute_shouldReplayTheStoredResponseIfItIsNotCached() {
+    // Arrange
+    when(loginService.getCurrentUserId()).thenReturn(Mono.just(USER_ID));
+    idempotentRequests().execute("key", "test", BODY, Response.class, request()).block();
+
+    // Act & Assert
+    StepVerifier.create(idempotentRequests().execute("key", "test", BODY, Response.class, request()))
+        .expectNext(new Response(1))
+        .verifyComplete();
+    assertThat(executions.get()).isEqualTo(1);
+  }
+
+  /**
+   * @verifies return conflict if the request with the key is still in progress
+   * @see IdempotentRequests#execute(String, String, Object, Class, Mono)
+   */
+  @Test
+  void execute_shouldReturnConflictIfTheRequestWithTheKeyIsStillInProgress() {
+    // Arrange
+    when(loginService.getCurrentUserId()).thenReturn(Mono.just(USER_ID));
+    var idempotentRequests = idempotentRequests();
+    var inProgress = idempotentRequests.execute("key", "test", BODY, Response.class, Mono.never()).subscribe();
+
+    // Act & Assert
+    StepVerifier.create(idempotentRequests.execute("key", "test", BODY, Response.class, request()))
+        .expectErrorSatisfies(e -> assertThat(((ResponseStatusException) e).getStatusCode())
+            .isEqualTo(HttpStatus.CONFLICT))
+        .verify();
+    assertThat(executions.get()).isZero();
+    inProgress.dispose();
+  }
+
+  /**
+   * @verifies release the key if the request fails
+   * @see IdempotentRequests#execute(String, String, Object, Class, Mono)
+   */
+  @Test
+  void execute_shouldReleaseTheKeyIfTheRequestFails() {
+    // Arrange
+    when(loginService.getCurrentUserId()).thenReturn(Mono.just(USER_ID));
+    var idempotentRequests = idempotentRequests();
+
+    // Act & Assert
+    StepVerifier.create(idempotentRequests.execute("key", "test", BODY, Response.class,
+            Mono.error(new IllegalStateException())))
+        .expectError(IllegalStateException.class)
+        .verify();
+    StepVerifier.create(idempotentRequests.execute("key", "test", BODY, Response.class, request()))
+        .expectNext(new Response(1))
+        .verifyComplete();
+    StepVerifier.create(idempotencyKeyRepository.deleteCreatedBefore(LocalDateTime.now().plusMinutes(1)))
+        .expectNext(1)
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies release the key if the request completes empty
+   * @see IdempotentRequests#execute(String, String, Object, Class, Mono)
+   */
+  @Test
+  void execute_shouldReleaseTheKeyIfTheRequestCompletesEmpty() {
+    // Arrange
+    when(loginService.getCurrentUserId()).thenReturn(Mono.just(USER_ID));
+    var idempotentRequests = idempotentRequests();
+
+    // Act & Assert
+    StepVerifier.create(idempotentRequests.execute("key", "test", BODY, Response.class, Mono.empty()))
+        .verifyComplete();
+    StepVerifier.create(idempotentRequests.execute("key", "test", BODY, Response.class, request()))
+        .expectNext(new Response(1))
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies release the key if the request is cancelled
+   * @see IdempotentRequests#execute(String, String, Object, Class, Mono)
+   */
+  @Test
+  void execute_shouldReleaseTheKeyIfTheRequestIsCancelled() {
+    // Arrange
+    when(loginService.getCurrentUserId()).thenReturn(Mono.just(USER_ID));
+    var idempotentRequests = idempotentRequests();
+
+    // Act & Assert
+    // the client disconnects while the request is running
+    StepVerifier.create(idempotentRequests.execute("key", "test", BODY, Response.class, Mono.never()))
+        .thenCancel()
+        .verify();
+    StepVerifier.create(idempotentRequests.execute("key", "test", BODY, Response.class, request()))
+        .expectNext(new Response(1))
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies reject a cached key reused with a different request
+   * @see IdempotentRequests#execute(String, String, Object, Class, Mono)
+   */
+  @Test
+  void execute_shouldRejectACachedKeyReusedWithADifferentRequest() {
+    // Arrange
+    when(loginService.getCurrentUserId()).thenReturn(Mono.just(USER_ID));
+    var idempotentRequests = idempotentRequests();
+    idempotentRequests.execute("key", "test", BODY, Response.class, request()).block();
+
+    // Act & Assert
+    StepVerifier.create(idempotentRequests.execute("key", "test", new Request(2), Response.class, request()))
+        .expectErrorSatisfies(e -> assertThat(((ResponseStatusException) e).getStatusCode())
+            .isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY))
+        .verify();
+    assertThat(executions.get()).isEqualTo(1);
+  }
+
+  /**
+   * @verifies reject a stored key reused with a different request
+   * @see IdempotentRequests#execute(String, String, Object, Class, Mono)
+   */
+  @Test
+  void execute_shouldRejectAStoredKeyReusedWithADifferentRequest() {
+    // Arrange
+    when(loginService.getCurrentUserId()).thenReturn(Mono.just(USER_ID));
+    idempotentRequests().execute("key", "test", BODY, Response.class, request()).block();
+
+    // Act & Assert
+    StepVerifier.create(idempotentRequests().execute("key", "test", new Request(2), Response.class, request()))
+        .expectErrorSatisfies(e -> assertThat(((ResponseStatusException) e).getStatusCode())
+            .isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY))
+        .verify();
+    assertThat(executions.get()).isEqualTo(1);
+  }
+}
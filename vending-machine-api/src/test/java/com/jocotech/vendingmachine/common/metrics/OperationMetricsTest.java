@@ -0,0 +1,74 @@
+package com.jocotech.vendingmachine.common.metrics;
+
+import com.jocotech.vendingmachine.machine.InsufficientFundsException;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OperationMetricsTest {
+  private SimpleMeterRegistry meterRegistry;
+  private OperationMetrics operationMetrics;
+
+  @BeforeEach
+  public void setup() {
+    meterRegistry = new SimpleMeterRegistry();
+    operationMetrics = new OperationMetrics(meterRegistry);
+  }
+
+  private long count(String outcome) {
+    var timer = meterRegistry.find("operations").tags("operation", "test", "outcome", outcome).timer();
+    return timer == null ? 0 : timer.count();
+  }
+
+  /**
+   * @verifies record a successful operation
+   * @see OperationMetrics#timed(Mono, String, Tags)
+   */
+  @Test
+  void timed_shouldRecordASuccessfulOperation() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(operationMetrics.timed(Mono.just(1), "operations", Tags.of("operation", "test")))
+        .expectNext(1)
+        .verifyComplete();
+    assertThat(count("success")).isEqualTo(1);
+  }
+
+  /**
+   * @verifies tag the outcome with the name of an application exception
+   * @see OperationMetrics#timed(Mono, String, Tags)
+   */
+  @Test
+  void timed_shouldTagTheOutcomeWithTheNameOfAnApplicationException() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(operationMetrics.timed(Mono.error(new InsufficientFundsException()), "operations",
+            Tags.of("operation", "test")))
+        .expectError(InsufficientFundsException.class)
+        .verify();
+    assertThat(count("InsufficientFundsException")).isEqualTo(1);
+  }
+
+  /**
+   * @verifies tag the outcome of any other exception as error
+   * @see OperationMetrics#timed(Mono, String, Tags)
+   */
+  @Test
+  void timed_shouldTagTheOutcomeOfAnyOtherExceptionAsError() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(operationMetrics.timed(Mono.error(new IllegalStateException()), "operations",
+            Tags.of("operation", "test")))
+        .expectError(IllegalStateException.class)
+        .verify();
+    assertThat(count("error")).isEqualTo(1);
+  }
+}
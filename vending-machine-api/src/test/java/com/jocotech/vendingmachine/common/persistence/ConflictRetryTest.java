@@ -0,0 +1,89 @@
+package com.jocotech.vendingmachine.common.persistence;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.OptimisticLockingFailureException;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConflictRetryTest {
+  private SimpleMeterRegistry meterRegistry;
+  private ConflictRetry conflictRetry;
+  private AtomicInteger attempts;
+
+  @BeforeEach
+  public void setup() {
+    meterRegistry = new SimpleMeterRegistry();
+    conflictRetry = new ConflictRetry(2, 1, meterRegistry);
+    attempts = new AtomicInteger();
+  }
+
+  // fails with the given error on the first failures attempts
+  private Mono<Integer> operation(int failures, RuntimeException error) {
+    return Mono.fromCallable(() -> {
+      if (attempts.incrementAndGet() <= failures) {
+        throw error;
+      }
+      return attempts.get();
+    });
+  }
+
+  private double count(String name) {
+    var counter = meterRegistry.find(name).tag("operation", "test").counter();
+    return counter == null ? 0 : counter.count();
+  }
+
+  /**
+   * @verifies retry the operation after a conflict
+   * @see ConflictRetry#retryOnConflict(String, Mono)
+   */
+  @Test
+  void retryOnConflict_shouldRetryTheOperationAfterAConflict() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(conflictRetry.retryOnConflict("test",
+            operation(1, new OptimisticLockingFailureException("conflict"))))
+        .expectNext(2)
+        .verifyComplete();
+    assertThat(count("persistence.conflicts")).isEqualTo(1);
+    assertThat(count("persistence.conflict.retries")).isEqualTo(1);
+  }
+
+  /**
+   * @verifies return the conflict once the retries are exhausted
+   * @see ConflictRetry#retryOnConflict(String, Mono)
+   */
+  @Test
+  void retryOnConflict_shouldReturnTheConflictOnceTheRetriesAreExhausted() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(conflictRetry.retryOnConflict("test",
+            operation(5, new OptimisticLockingFailureException("conflict"))))
+        .expectError(OptimisticLockingFailureException.class)
+        .verify();
+    assertThat(attempts.get()).isEqualTo(3);
+    assertThat(count("persistence.conflict.exhausted")).isEqualTo(1);
+  }
+
+  /**
+   * @verifies not retry other errors
+   * @see ConflictRetry#retryOnConflict(String, Mono)
+   */
+  @Test
+  void retryOnConflict_shouldNotRetryOtherErrors() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(conflictRetry.retryOnConflict("test", operation(1, new IllegalStateException())))
+        .expectError(IllegalStateException.class)
+        .verify();
+    assertThat(attempts.get()).isEqualTo(1);
+  }
+}
@@ -0,0 +1,177 @@
+package com.jocotech.vendingmachine.common.security;
+
+import com.jocotech.vendingmachine.user.Role;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.security.SignatureException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.UUID;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JwtTokenUtilTest {
+  private static final String SECRET = "Mary had a little lamb, Its fleece was white as snow; And everywhere that Mary went";
+
+  private JwtTokenUtil jwtTokenUtil;
+
+  @BeforeEach
+  public void setup() {
+    jwtTokenUtil = new JwtTokenUtil(SECRET, 100, new SimpleMeterRegistry());
+    ReflectionTestUtils.setField(jwtTokenUtil, "tokenValidity", 60);
+    ReflectionTestUtils.setField(jwtTokenUtil, "refreshTokenValidity", 600);
+  }
+
+  /**
+   * @verifies return the subject of a valid token
+   * @see JwtTokenUtil#extractUserId(String)
+   */
+  @Test
+  void extractUserId_shouldReturnTheSubjectOfAValidToken() {
+    // Arrange
+    var userId = UUID.randomUUID();
+    var token = jwtTokenUtil.generateToken(userId, Role.ROLE_BUYER);
+
+    // Act & Assert
+    assertThat(jwtTokenUtil.extractUserId(token)).isEqualTo(userId.toString());
+  }
+
+  /**
+   * @verifies return the same subject for a token that is already verified
+   * @see JwtTokenUtil#extractUserId(String)
+   */
+  @Test
+  void extractUserId_shouldReturnTheSameSubjectForATokenThatIsAlreadyVerified() {
+    // Arrange
+    var userId = UUID.randomUUID();
+    var token = jwtTokenUtil.generateToken(userId, Role.ROLE_BUYER);
+    jwtTokenUtil.extractUserId(token);
+
+    // Act & Assert
+    assertThat(jwtTokenUtil.extractUserId(token)).isEqualTo(userId.toString());
+    assertThat(jwtTokenUtil.stats().hitCount()).isEqualTo(1);
+  }
+
+  /**
+   * @verifies verify the token on every use if the cache is disabled
+   * @see JwtTokenUtil#extractUserId(String)
+   */
+  @Test
+  void extractUserId_shouldVerifyTheTokenOnEveryUseIfTheCacheIsDisabled() {
+    // Arrange
+    var uncached = new JwtTokenUtil(SECRET, 0, new SimpleMeterRegistry());
+    ReflectionTestUtils.setField(uncached, "tokenValidity", 60);
+    var userId = UUID.randomUUID();
+    var token = uncached.generateToken(userId, Role.ROLE_BUYER);
+    uncached.extractUserId(token);
+
+    // Act & Assert
+    assertThat(uncached.extractUserId(token)).isEqualTo(userId.toString());
+    assertThat(uncached.stats().requestCount()).isZero();
+  }
+
+  /**
+   * @verifies reject a token with an invalid signature
+   * @see JwtTokenUtil#extractUserId(String)
+   */
+  @Test
+  void extractUserId_shouldRejectATokenWithAnInvalidSignature() {
+    // Arrange
+    var otherUtil = new JwtTokenUtil(SECRET.toUpperCase(), 100, new SimpleMeterRegistry());
+    ReflectionTestUtils.setField(otherUtil, "tokenValidity", 60);
+    var token = otherUtil.generateToken(UUID.randomUUID(), Role.ROLE_BUYER);
+
+    // Act & Assert
+    assertThatThrownBy(() -> jwtTokenUtil.extractUserId(token))
+        .isInstanceOf(SignatureException.class);
+  }
+
+  /**
+   * @verifies reject an expired token
+   * @see JwtTokenUtil#extractUserId(String)
+   */
+  @Test
+  void extractUserId_shouldRejectAnExpiredToken() {
+    // Arrange
+    ReflectionTestUtils.setField(jwtTokenUtil, "tokenValidity", -1);
+    var token = jwtTokenUtil.generateToken(UUID.randomUUID(), Role.ROLE_BUYER);
+
+    // Act & Assert
+    assertThatThrownBy(() -> jwtTokenUtil.extractUserId(token))
+        .isInstanceOf(ExpiredJwtException.class);
+  }
+
+  /**
+   * @verifies sign the role into the token in stateless mode
+   * @see JwtTokenUtil#generateToken(UUID, Role)
+   */
+  @Test
+  void generateToken_shouldSignTheRoleIntoTheTokenInStatelessMode() {
+    // Arrange
+    ReflectionTestUtils.setField(jwtTokenUtil, "stateless", true);
+    ReflectionTestUtils.setField(jwtTokenUtil, "statelessTokenValidity", 30);
+    var token = jwtTokenUtil.generateToken(UUID.randomUUID(), Role.ROLE_SELLER);
+
+    // Act
+    Claims claims = jwtTokenUtil.extractClaim(token, Function.identity());
+
+    // Assert
+    assertThat(JwtTokenUtil.extractRole(claims)).isEqualTo(Role.ROLE_SELLER);
+    assertThat(jwtTokenUtil.getTokenValidity()).isEqualTo(30);
+  }
+
+  /**
+   * @verifies not sign the role into the token by default
+   * @see JwtTokenUtil#generateToken(UUID, Role)
+   */
+  @Test
+  void generateToken_shouldNotSignTheRoleIntoTheTokenByDefault() {
+    // Arrange
+    var token = jwtTokenUtil.generateToken(UUID.randomUUID(), Role.ROLE_SELLER);
+
+    // Act
+    Claims claims = jwtTokenUtil.extractClaim(token, Function.identity());
+
+    // Assert
+    assertThat(JwtTokenUtil.extractRole(claims)).isNull();
+  }
+
+  /**
+   * @verifies generate a token that is recognised as a refresh token
+   * @see JwtTokenUtil#generateRefreshToken(UUID)
+   */
+  @Test
+  void generateRefreshToken_shouldGenerateATokenThatIsRecognisedAsARefreshToken() {
+    // Arrange
+    var userId = UUID.randomUUID();
+    var token = jwtTokenUtil.generateRefreshToken(userId);
+
+    // Act
+    Claims claims = jwtTokenUtil.extractClaim(token, Function.identity());
+
+    // Assert
+    assertThat(JwtTokenUtil.isRefreshToken(claims)).isTrue();
+    assertThat(claims.getSubject()).isEqualTo(userId.toString());
+  }
+
+  /**
+   * @verifies not recognise an access token as a refresh token
+   * @see JwtTokenUtil#isRefreshToken(Claims)
+   */
+  @Test
+  void isRefreshToken_shouldNotRecogniseAnAccessTokenAsARefreshToken() {
+    // Arrange
+    var token = jwtTokenUtil.generateToken(UUID.randomUUID(), Role.ROLE_BUYER);
+
+    // Act
+    Claims claims = jwtTokenUtil.extractClaim(token, Function.identity());
+
+    // Assert
+    assertThat(JwtTokenUtil.isRefreshToken(claims)).isFalse();
+  }
+}
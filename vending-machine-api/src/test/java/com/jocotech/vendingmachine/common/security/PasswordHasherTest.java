@@ -0,0 +1,111 @@
+package com.jocotech.vendingmachine.common.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PasswordHasherTest {
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final List<Disposable> pending = new ArrayList<>();
+  private PasswordHasher passwordHasher;
+
+  @AfterEach
+  public void tearDown() {
+    pending.forEach(Disposable::dispose);
+    passwordHasher.destroy();
+  }
+
+  /**
+   * @verifies encode the password off the calling thread
+   * @see PasswordHasher#encode(CharSequence)
+   */
+  @Test
+  void encode_shouldEncodeThePasswordOffTheCallingThread() {
+    // Arrange
+    var threads = new ArrayList<String>();
+    var passwordEncoder = new BCryptPasswordEncoder(4) {
+      @Override
+      public String encode(CharSequence rawPassword) {
+        threads.add(Thread.currentThread().getName());
+        return super.encode(rawPassword);
+      }
+    };
+    passwordHasher = new PasswordHasher(passwordEncoder, 1, 1, meterRegistry);
+
+    // Act & Assert
+    StepVerifier.create(passwordHasher.encode("secret"))
+        .assertNext(hash -> assertThat(passwordEncoder.matches("secret", hash)).isTrue())
+        .verifyComplete();
+    assertThat(threads).singleElement().asString().startsWith("password-hasher");
+    assertThat(meterRegistry.get("password.hasher.duration").tag("operation", "encode").timer().count())
+        .isEqualTo(1);
+    assertThat(meterRegistry.get("password.hasher.queue.wait").timer().count()).isEqualTo(1);
+  }
+
+  /**
+   * @verifies return service unavailable if the queue is full
+   * @see PasswordHasher#encode(CharSequence)
+   */
+  @Test
+  void encode_shouldReturnServiceUnavailableIfTheQueueIsFull() throws InterruptedException {
+    // Arrange
+    var started = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    PasswordEncoder passwordEncoder = new BCryptPasswordEncoder(4) {
+      @Override
+      public String encode(CharSequence rawPassword) {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return super.encode(rawPassword);
+      }
+    };
+    passwordHasher = new PasswordHasher(passwordEncoder, 1, 1, meterRegistry);
+    pending.add(passwordHasher.encode("running").subscribe());
+    started.await();
+    pending.add(passwordHasher.encode("queued").subscribe());
+
+    // Act & Assert
+    StepVerifier.create(passwordHasher.encode("rejected"))
+        .expectErrorSatisfies(e -> assertThat(((ResponseStatusException) e).getStatusCode())
+            .isEqualTo(HttpStatus.SERVICE_UNAVAILABLE))
+        .verify();
+    assertThat(meterRegistry.get("password.hasher.rejected").counter().count()).isEqualTo(1);
+    release.countDown();
+  }
+
+  /**
+   * @verifies match the password against its hash
+   * @see PasswordHasher#matches(CharSequence, String)
+   */
+  @Test
+  void matches_shouldMatchThePasswordAgainstItsHash() {
+    // Arrange
+    var passwordEncoder = new BCryptPasswordEncoder(4);
+    passwordHasher = new PasswordHasher(passwordEncoder, 1, 1, meterRegistry);
+    var hash = passwordEncoder.encode("secret");
+
+    // Act & Assert
+    StepVerifier.create(passwordHasher.matches("secret", hash))
+        .expectNext(true)
+        .verifyComplete();
+    StepVerifier.create(passwordHasher.matches("wrong", hash))
+        .expectNext(false)
+        .verifyComplete();
+  }
+}
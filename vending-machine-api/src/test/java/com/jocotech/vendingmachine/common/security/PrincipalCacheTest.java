@@ -0,0 +1,139 @@
+package com.jocotech.vendingmachine.common.security;
+
+import com.jocotech.vendingmachine.user.Role;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PrincipalCacheTest {
+  private static final UUID USER_ID = UUID.randomUUID();
+  private static final UUID OTHER_USER_ID = UUID.randomUUID();
+
+  private PrincipalCache principalCache;
+  private AtomicInteger loads;
+
+  @BeforeEach
+  public void setup() {
+    principalCache = new PrincipalCache(100, 60, new SimpleMeterRegistry());
+    loads = new AtomicInteger();
+  }
+
+  private Function<UUID, Mono<Role>> loader(Role role) {
+    return userId -> Mono.fromSupplier(() -> {
+      loads.incrementAndGet();
+      return role;
+    });
+  }
+
+  /**
+   * @verifies return the cached role without loading it
+   * @see PrincipalCache#getRole(UUID, Function)
+   */
+  @Test
+  void getRole_shouldReturnTheCachedRoleWithoutLoadingIt() {
+    // Arrange
+    principalCache.getRole(USER_ID, loader(Role.ROLE_BUYER)).block();
+
+    // Act & Assert
+    StepVerifier.create(principalCache.getRole(USER_ID, loader(Role.ROLE_SELLER)))
+        .expectNext(Role.ROLE_BUYER)
+        .verifyComplete();
+    assertThat(loads.get()).isEqualTo(1);
+    assertThat(principalCache.stats().hitCount()).isEqualTo(1);
+  }
+
+  /**
+   * @verifies load and cache the role of a user that is not cached
+   * @see PrincipalCache#getRole(UUID, Function)
+   */
+  @Test
+  void getRole_shouldLoadAndCacheTheRoleOfAUserThatIsNotCached() {
+    // Act & Assert
+    StepVerifier.create(principalCache.getRole(USER_ID, loader(Role.ROLE_BUYER)))
+        .expectNext(Role.ROLE_BUYER)
+        .verifyComplete();
+    StepVerifier.create(principalCache.getRole(USER_ID, loader(Role.ROLE_BUYER)))
+        .expectNext(Role.ROLE_BUYER)
+        .verifyComplete();
+    assertThat(loads.get()).isEqualTo(1);
+    assertThat(principalCache.stats().missCount()).isEqualTo(1);
+  }
+
+  /**
+   * @verifies not cache a role loaded before an invalidation
+   * @see PrincipalCache#getRole(UUID, Function)
+   */
+  @Test
+  void getRole_shouldNotCacheARoleLoadedBeforeAnInvalidation() {
+    // Arrange
+    var staleLoad = Sinks.<Role>one();
+    var load = principalCache.getRole(USER_ID, userId -> staleLoad.asMono()).toFuture();
+
+    // Act
+    // the role changes while it is being loaded
+    principalCache.invalidate(USER_ID);
+    staleLoad.tryEmitValue(Role.ROLE_BUYER);
+
+    // Assert
+    assertThat(load.join()).isEqualTo(Role.ROLE_BUYER);
+    StepVerifier.create(principalCache.getRole(USER_ID, loader(Role.ROLE_SELLER)))
+        .expectNext(Role.ROLE_SELLER)
+        .verifyComplete();
+    assertThat(loads.get()).isEqualTo(1);
+  }
+
+  /**
+   * @verifies drop the cached role of the user
+   * @see PrincipalCache#invalidate(UUID)
+   */
+  @Test
+  void invalidate_shouldDropTheCachedRoleOfTheUser() {
+    // Arrange
+    principalCache.getRole(USER_ID, loader(Role.ROLE_BUYER)).block();
+    principalCache.getRole(OTHER_USER_ID, loader(Role.ROLE_BUYER)).block();
+
+    // Act
+    principalCache.invalidate(USER_ID);
+
+    // Assert
+    StepVerifier.create(principalCache.getRole(USER_ID, loader(Role.ROLE_SELLER)))
+        .expectNext(Role.ROLE_SELLER)
+        .verifyComplete();
+    StepVerifier.create(principalCache.getRole(OTHER_USER_ID, loader(Role.ROLE_SELLER)))
+        .expectNext(Role.ROLE_BUYER)
+        .verifyComplete();
+    assertThat(loads.get()).isEqualTo(3);
+  }
+
+  /**
+   * @verifies drop the cached roles of every user
+   * @see PrincipalCache#invalidateAll()
+   */
+  @Test
+  void invalidateAll_shouldDropTheCachedRolesOfEveryUser() {
+    // Arrange
+    principalCache.getRole(USER_ID, loader(Role.ROLE_BUYER)).block();
+    principalCache.getRole(OTHER_USER_ID, loader(Role.ROLE_BUYER)).block();
+
+    // Act
+    principalCache.invalidateAll();
+
+    // Assert
+    StepVerifier.create(principalCache.getRole(USER_ID, loader(Role.ROLE_SELLER)))
+        .expectNext(Role.ROLE_SELLER)
+        .verifyComplete();
+    StepVerifier.create(principalCache.getRole(OTHER_USER_ID, loader(Role.ROLE_SELLER)))
+        .expectNext(Role.ROLE_SELLER)
+        .verifyComplete();
+    assertThat(loads.get()).isEqualTo(4);
+  }
+}
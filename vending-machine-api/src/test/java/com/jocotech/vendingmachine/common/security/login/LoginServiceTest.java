@@ -0,0 +1,160 @@
+package com.jocotech.vendingmachine.common.security.login;
+
+import com.jocotech.vendingmachine.common.metrics.OperationMetrics;
+import com.jocotech.vendingmachine.common.security.InvalidUserException;
+import com.jocotech.vendingmachine.common.security.JwtTokenUtil;
+import com.jocotech.vendingmachine.common.security.PasswordHasher;
+import com.jocotech.vendingmachine.user.Role;
+import com.jocotech.vendingmachine.user.User;
+import com.jocotech.vendingmachine.user.UserService;
+import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class LoginServiceTest {
+  private static final String SECRET = "Mary had a little lamb, Its fleece was white as snow; And everywhere that Mary went";
+  private static final UUID USER_ID = UUID.randomUUID();
+
+  @Mock
+  private UserService userService;
+  @Mock
+  private PasswordHasher passwordHasher;
+
+  private JwtTokenUtil jwtTokenUtil;
+  private LoginService loginService;
+
+  @BeforeEach
+  public void setup() {
+    var meterRegistry = new SimpleMeterRegistry();
+    jwtTokenUtil = new JwtTokenUtil(SECRET, 100, meterRegistry);
+    ReflectionTestUtils.setField(jwtTokenUtil, "tokenValidity", 60);
+    ReflectionTestUtils.setField(jwtTokenUtil, "refreshTokenValidity", 600);
+    loginService = new LoginService(userService, jwtTokenUtil, passwordHasher, new OperationMetrics(meterRegistry));
+  }
+
+  private static User user(LocalDateTime credentialsChangedDate) {
+    return User.builder()
+        .id(USER_ID)
+        .username("buyer")
+        .role(Role.ROLE_BUYER)
+        .credentialsChangedDate(credentialsChangedDate)
+        .build();
+  }
+
+  /**
+   * @verifies return a new access token for a valid refresh token
+   * @see LoginService#refresh(String)
+   */
+  @Test
+  void refresh_shouldReturnANewAccessTokenForAValidRefreshToken() {
+    // Arrange
+    when(userService.findById(USER_ID.toString()))
+        .thenReturn(Mono.just(user(LocalDateTime.now().minusMinutes(1))));
+    var refreshToken = jwtTokenUtil.generateRefreshToken(USER_ID);
+
+    // Act & Assert
+    StepVerifier.create(loginService.refresh(refreshToken))
+        .assertNext(response -> {
+          assertThat(jwtTokenUtil.extractUserId(response.accessToken())).isEqualTo(USER_ID.toString());
+          assertThat(response.refreshToken()).isEqualTo(refreshToken);
+          assertThat(response.expiresIn()).isEqualTo(60);
+        })
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies reject an access token
+   * @see LoginService#refresh(String)
+   */
+  @Test
+  void refresh_shouldRejectAnAccessToken() {
+    // Arrange
+    var accessToken = jwtTokenUtil.generateToken(USER_ID, Role.ROLE_BUYER);
+
+    // Act & Assert
+    StepVerifier.create(loginService.refresh(accessToken))
+        .expectError(InvalidUserException.class)
+        .verify();
+  }
+
+  /**
+   * @verifies reject a refresh token issued before the credentials of the user changed
+   * @see LoginService#refresh(String)
+   */
+  @Test
+  void refresh_shouldRejectARefreshTokenIssuedBeforeTheCredentialsOfTheUserChanged() {
+    // Arrange
+    var refreshToken = jwtTokenUtil.generateRefreshToken(USER_ID);
+    when(userService.findById(USER_ID.toString()))
+        .thenReturn(Mono.just(user(LocalDateTime.now().plusSeconds(1))));
+
+    // Act & Assert
+    StepVerifier.create(loginService.refresh(refreshToken))
+        .expectError(InvalidUserException.class)
+        .verify();
+  }
+
+  /**
+   * @verifies reject a refresh token of a deleted user
+   * @see LoginService#refresh(String)
+   */
+  @Test
+  void refresh_shouldRejectARefreshTokenOfADeletedUser() {
+    // Arrange
+    var refreshToken = jwtTokenUtil.generateRefreshToken(USER_ID);
+    when(userService.findById(USER_ID.toString())).thenReturn(Mono.empty());
+
+    // Act & Assert
+    StepVerifier.create(loginService.refresh(refreshToken))
+        .expectError(InvalidUserException.class)
+        .verify();
+  }
+
+  /**
+   * @verifies reject a missing or blank refresh token
+   * @see LoginService#refresh(String)
+   */
+  @Test
+  void refresh_shouldRejectAMissingOrBlankRefreshToken() {
+    // Act & Assert
+    StepVerifier.create(loginService.refresh(null))
+        .expectError(InvalidUserException.class)
+        .verify();
+    StepVerifier.create(loginService.refresh(" "))
+        .expectError(InvalidUserException.class)
+        .verify();
+  }
+
+  /**
+   * @verifies accept a refresh token issued in the same second as the credentials of the user changed
+   * @see LoginService#refresh(String)
+   */
+  @Test
+  void refresh_shouldAcceptARefreshTokenIssuedInTheSameSecondAsTheCredentialsOfTheUserChanged() {
+    // Arrange
+    var refreshToken = jwtTokenUtil.generateRefreshToken(USER_ID);
+    var issuedAt = jwtTokenUtil.extractClaim(refreshToken, Claims::getIssuedAt).toInstant();
+    when(userService.findById(USER_ID.toString())).thenReturn(Mono.just(
+        user(LocalDateTime.ofInstant(issuedAt.plusMillis(500), ZoneId.systemDefault()))));
+
+    // Act & Assert
+    StepVerifier.create(loginService.refresh(refreshToken))
+        .assertNext(response -> assertThat(response.refreshToken()).isEqualTo(refreshToken))
+        .verifyComplete();
+  }
+}
@@ -0,0 +1,180 @@
+package com.jocotech.vendingmachine.machine;
+
+import com.jocotech.vendingmachine.common.metrics.OperationMetrics;
+import com.jocotech.vendingmachine.common.security.login.LoginService;
+import com.jocotech.vendingmachine.product.Product;
+import com.jocotech.vendingmachine.product.ProductService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class PurchaseLanesTest {
+  private ProductService productService;
+  private VendingMachineService vendingMachineService;
+  private UUID userId;
+  private Product product;
+
+  @BeforeEach
+  public void setup() {
+    productService = mock(ProductService.class);
+    vendingMachineService = mock(VendingMachineService.class);
+    userId = UUID.randomUUID();
+    product = Product.builder()
+        .id(UUID.randomUUID())
+        .sellerId(UUID.randomUUID())
+        .productName("product")
+        .cost(10)
+        .amountAvailable(5)
+        .build();
+    doReturn(Mono.just(product)).when(productService).getProductById(product.getId().toString());
+  }
+
+  private PurchaseLanes purchaseLanes(int queueCapacity) {
+    var loginService = mock(LoginService.class);
+    doReturn(Mono.just(userId)).when(loginService).getCurrentUserId();
+    var meterRegistry = new SimpleMeterRegistry();
+    return new PurchaseLanes(loginService, productService, vendingMachineService,
+        new OperationMetrics(meterRegistry), true, queueCapacity, 100, meterRegistry);
+  }
+
+  private static PurchaseLanes.Result success(PurchaseLanes.Purchase purchase) {
+    return PurchaseLanes.Result.success(new VendingMachineController.PurchaseResponse(10 * purchase.amount(),
+        null, 0));
+  }
+
+  /**
+   * @verifies return an error if the amount is not positive
+   * @see PurchaseLanes#buy(String, int)
+   */
+  @Test
+  void buy_shouldReturnAnErrorIfTheAmountIsNotPositive() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(purchaseLanes(10).buy(product.getId().toString(), 0))
+        .expectError(IllegalArgumentException.class)
+        .verify();
+  }
+
+  /**
+   * @verifies return an error if the product is not found
+   * @see PurchaseLanes#buy(String, int)
+   */
+  @Test
+  void buy_shouldReturnAnErrorIfTheProductIsNotFound() {
+    // Arrange
+    doReturn(Mono.empty()).when(productService).getProductById(anyString());
+
+    // Act & Assert
+    StepVerifier.create(purchaseLanes(10).buy(UUID.randomUUID().toString(), 1))
+        .expectError(InvalidProductException.class)
+        .verify();
+  }
+
+  /**
+   * @verifies reject the purchase without queueing it if the product is sold out
+   * @see PurchaseLanes#buy(String, int)
+   */
+  @Test
+  void buy_shouldRejectThePurchaseWithoutQueueingItIfTheProductIsSoldOut() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(purchaseLanes(10).buy(product.getId().toString(), 6))
+        .expectError(InsufficientProductException.class)
+        .verify();
+    verify(vendingMachineService, never()).buyAll(anyString(), anyList());
+  }
+
+  /**
+   * @verifies reject the purchase if the queue of the product is full
+   * @see PurchaseLanes#buy(String, int)
+   */
+  @Test
+  void buy_shouldRejectThePurchaseIfTheQueueOfTheProductIsFull() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(purchaseLanes(0).buy(product.getId().toString(), 1))
+        .expectErrorMatches(e -> e instanceof ResponseStatusException r
+            && r.getStatusCode() == HttpStatus.SERVICE_UNAVAILABLE)
+        .verify();
+  }
+
+  /**
+   * @verifies buy the purchases waiting in the queue together
+   * @see PurchaseLanes#buy(String, int)
+   */
+  @Test
+  void buy_shouldBuyThePurchasesWaitingInTheQueueTogether() {
+    // Arrange
+    var purchaseLanes = purchaseLanes(10);
+    var firstBatch = Sinks.<List<PurchaseLanes.Result>>one();
+    doReturn(firstBatch.asMono())
+        .doAnswer(invocationOnMock -> Mono.just(invocationOnMock.<List<PurchaseLanes.Purchase>>getArgument(1).stream()
+            .map(PurchaseLanesTest::success)
+            .toList()))
+        .when(vendingMachineService).buyAll(anyString(), anyList());
+    var first = purchaseLanes.buy(product.getId().toString(), 1).toFuture();
+    var second = purchaseLanes.buy(product.getId().toString(), 2).toFuture();
+    var third = purchaseLanes.buy(product.getId().toString(), 3).toFuture();
+
+    // Act
+    firstBatch.tryEmitValue(List.of(success(new PurchaseLanes.Purchase(userId, 1))));
+
+    // Assert
+    StepVerifier.create(Mono.fromFuture(first).then(Mono.fromFuture(second)).then(Mono.fromFuture(third)))
+        .expectNextMatches(response -> response.amountSpent() == 30)
+        .expectComplete()
+        .verify(Duration.ofSeconds(5));
+    verify(vendingMachineService).buyAll(product.getId().toString(),
+        List.of(new PurchaseLanes.Purchase(userId, 1)));
+    verify(vendingMachineService).buyAll(product.getId().toString(),
+        List.of(new PurchaseLanes.Purchase(userId, 2), new PurchaseLanes.Purchase(userId, 3)));
+  }
+
+  /**
+   * @verifies remove the lane of the product once it is idle
+   * @see PurchaseLanes#buy(String, int)
+   */
+  @Test
+  void buy_shouldRemoveTheLaneOfTheProductOnceItIsIdle() {
+    // Arrange
+    var purchaseLanes = purchaseLanes(10);
+    doAnswer(invocationOnMock -> Mono.just(invocationOnMock.<List<PurchaseLanes.Purchase>>getArgument(1).stream()
+        .map(PurchaseLanesTest::success)
+        .toList()))
+        .when(vendingMachineService).buyAll(anyString(), anyList());
+    var lanes = (Map<?, ?>) ReflectionTestUtils.getField(purchaseLanes, "lanes");
+
+    // Act
+    purchaseLanes.buy(product.getId().toString(), 1).block(Duration.ofSeconds(5));
+
+    // Assert
+    StepVerifier.create(Mono.fromSupplier(lanes::isEmpty)
+            .filter(Boolean::booleanValue)
+            .repeatWhenEmpty(repeat -> repeat.delayElements(Duration.ofMillis(10))))
+        .expectNext(true)
+        .expectComplete()
+        .verify(Duration.ofSeconds(5));
+  }
+}
@@ -1,27 +1,38 @@
 package com.jocotech.vendingmachine.machine;
 
+import com.jocotech.vendingmachine.common.metrics.OperationMetrics;
 import com.jocotech.vendingmachine.common.security.login.LoginService;
 import com.jocotech.vendingmachine.product.Product;
 import com.jocotech.vendingmachine.product.ProductService;
 import com.jocotech.vendingmachine.user.Role;
 import com.jocotech.vendingmachine.user.User;
 import com.jocotech.vendingmachine.user.UserService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 class VendingMachineServiceTest {
+  private LoginService loginService;
   private UserService userService;
   private ProductService productService;
   private VendingMachineService vendingMachineService;
@@ -32,10 +43,11 @@ class VendingMachineServiceTest {
 
   @BeforeEach
   public void setup() {
-    var loginService = mock(LoginService.class);
+    loginService = mock(LoginService.class);
     userService = mock(UserService.class);
     productService = mock(ProductService.class);
-    vendingMachineService = new VendingMachineService(loginService, userService, productService);
+    vendingMachineService = new VendingMachineService(loginService, userService, productService,
+        new OperationMetrics(new SimpleMeterRegistry()));
     var id = UUID.randomUUID();
     doReturn(Mono.just(id)).when(loginService).getCurrentUserId();
     user = User.builder()
@@ -52,13 +64,31 @@ class VendingMachineServiceTest {
         .cost(10)
         .productName(UUID.randomUUID().toString())
         .build();
-    doReturn(Mono.just(user)).when(userService).findById(id.toString());
+    lenient().doReturn(Mono.just(user)).when(userService).findById(id.toString());
+    lenient()
+        .doAnswer(invocationOnMock -> Mono.just(user.getDeposit() + (int) invocationOnMock.getArgument(1)))
+        .when(userService).deposit(any(UUID.class), anyInt());
+    lenient()
+        .doAnswer(invocationOnMock -> Mono.just(user.getDeposit() + (int) invocationOnMock.getArgument(1)))
+        .when(userService).refund(any(UUID.class), anyInt());
+    lenient()
+        .doAnswer(invocationOnMock -> Mono.just(user.getDeposit()
+            + invocationOnMock.<List<Integer>>getArgument(1).stream().mapToInt(Integer::intValue).sum()))
+        .when(userService).depositAll(any(UUID.class), anyList());
+    lenient().doReturn(Mono.just(user.getDeposit())).when(userService).getDeposit(id);
+    lenient().doReturn(Mono.just(0)).when(userService).resetDeposit(any(UUID.class));
     lenient()
         .doAnswer(invocationOnMock -> Mono.just(invocationOnMock.getArgument(0)))
         .when(userService).update(any(User.class));
     lenient()
         .doAnswer(invocationOnMock -> Mono.just(invocationOnMock.getArgument(0)))
         .when(productService).update(any(Product.class));
+    lenient()
+        .doAnswer(invocationOnMock -> {
+          int amount = invocationOnMock.getArgument(1);
+          return amount > user.getDeposit() ? Mono.empty() : Mono.just(user.getDeposit() - amount);
+        })
+        .when(userService).withdraw(any(UUID.class), anyInt());
   }
 
   /**
@@ -74,15 +104,15 @@ class VendingMachineServiceTest {
         .expectError(InvalidCoinException.class)
         .verify();
 
-    verify(userService, times(0)).update(any(User.class));
+    verify(userService, times(0)).deposit(any(UUID.class), anyInt());
   }
 
   /**
-   * @verifies find the current user
+   * @verifies add the coin to the deposit of the current user
    * @see VendingMachineService#deposit(int)
    */
   @Test
-  void deposit_shouldFindTheCurrentUser() {
+  void deposit_shouldAddTheCoinToTheDepositOfTheCurrentUser() {
     // Arrange
 
     // Act & Assert
@@ -90,15 +120,15 @@ class VendingMachineServiceTest {
         .expectNextCount(1)
         .verifyComplete();
 
-    verify(userService, times(1)).findById(user.getId().toString());
+    verify(userService, times(1)).deposit(user.getId(), 20);
   }
 
   /**
-   * @verifies update the deposit amount of the current user with the coin amount
+   * @verifies not load or save the whole user
    * @see VendingMachineService#deposit(int)
    */
   @Test
-  void deposit_shouldUpdateTheDepositAmountOfTheCurrentUserWithTheCoinAmount() {
+  void deposit_shouldNotLoadOrSaveTheWholeUser() {
     // Arrange
 
     // Act & Assert
@@ -106,7 +136,8 @@ class VendingMachineServiceTest {
         .expectNextCount(1)
         .verifyComplete();
 
-    verify(userService, times(1)).update(any(User.class));
+    verify(userService, times(0)).findById(anyString());
+    verify(userService, times(0)).update(any(User.class));
   }
 
   /**
@@ -124,19 +155,147 @@ class VendingMachineServiceTest {
   }
 
   /**
-   * @verifies get the current user
+   * @verifies return an error if there are no coins
+   * @see VendingMachineService#depositAll(List)
+   */
+  @Test
+  void depositAll_shouldReturnAnErrorIfThereAreNoCoins() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.depositAll(List.of()))
+        .expectError(IllegalArgumentException.class)
+        .verify();
+  }
+
+  /**
+   * @verifies add the valid coins to the deposit together
+   * @see VendingMachineService#depositAll(List)
+   */
+  @Test
+  void depositAll_shouldAddTheValidCoinsToTheDepositTogether() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.depositAll(List.of(5, 10, 50)))
+        .expectNext(new VendingMachineController.BatchDepositResponse(95, List.of(5, 10, 50), List.of()))
+        .verifyComplete();
+
+    verify(userService, times(1)).depositAll(user.getId(), List.of(5, 10, 50));
+  }
+
+  /**
+   * @verifies reject the invalid coins
+   * @see VendingMachineService#depositAll(List)
+   */
+  @Test
+  void depositAll_shouldRejectTheInvalidCoins() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.depositAll(List.of(5, 25, 100, 1)))
+        .expectNext(new VendingMachineController.BatchDepositResponse(135, List.of(5, 100), List.of(25, 1)))
+        .verifyComplete();
+
+    verify(userService, times(1)).depositAll(user.getId(), List.of(5, 100));
+  }
+
+  /**
+   * @verifies reject null coins
+   * @see VendingMachineService#depositAll(List)
+   */
+  @Test
+  void depositAll_shouldRejectNullCoins() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.depositAll(Arrays.asList(50, null)))
+        .expectNext(new VendingMachineController.BatchDepositResponse(80, List.of(50), Arrays.asList((Integer) null)))
+        .verifyComplete();
+
+    verify(userService, times(1)).depositAll(user.getId(), List.of(50));
+  }
+
+  /**
+   * @verifies return the current deposit without an update if all coins are invalid
+   * @see VendingMachineService#depositAll(List)
+   */
+  @Test
+  void depositAll_shouldReturnTheCurrentDepositWithoutAnUpdateIfAllCoinsAreInvalid() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.depositAll(List.of(3, 25)))
+        .expectNext(new VendingMachineController.BatchDepositResponse(30, List.of(), List.of(3, 25)))
+        .verifyComplete();
+
+    verify(userService, times(0)).depositAll(any(UUID.class), anyList());
+    verify(userService, times(1)).getDeposit(user.getId());
+  }
+
+  /**
+   * @verifies reset the deposit of the current user
+   * @see VendingMachineService#resetDeposit()
+   */
+  @Test
+  void resetDeposit_shouldResetTheDepositOfTheCurrentUser() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.resetDeposit())
+        .expectNextCount(1)
+        .verifyComplete();
+
+    verify(userService, times(1)).resetDeposit(user.getId());
+    verify(userService, times(0)).update(any(User.class));
+  }
+
+  /**
+   * @verifies return the deposit after the reset
+   * @see VendingMachineService#resetDeposit()
+   */
+  @Test
+  void resetDeposit_shouldReturnTheDepositAfterTheReset() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.resetDeposit())
+        .expectNext(0)
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies get the current user id
    * @see VendingMachineService#buy(String, int)
    */
   @Test
-  void buy_shouldGetTheCurrentUser() {
+  void buy_shouldGetTheCurrentUserId() {
     // Arrange
-    doReturn(Mono.empty()).when(productService).getProductById(anyString());
+    doReturn(Mono.just(product)).when(productService).decrementStock(productId, 3);
 
     // Act & Assert
-    StepVerifier.create(vendingMachineService.buy(productId, 7))
-        .verifyError();
+    StepVerifier.create(vendingMachineService.buy(productId, 3))
+        .expectNextCount(1)
+        .verifyComplete();
 
-    verify(userService, times(1)).findById(user.getId().toString());
+    verify(loginService, times(1)).getCurrentUserId();
+    verify(userService, times(0)).findById(anyString());
+  }
+
+  /**
+   * @verifies return an error if the amount is not positive
+   * @see VendingMachineService#buy(String, int)
+   */
+  @Test
+  void buy_shouldReturnAnErrorIfTheAmountIsNotPositive() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.buy(productId, 0))
+        .expectError(IllegalArgumentException.class)
+        .verify();
+
+    verify(productService, times(0)).decrementStock(anyString(), anyInt());
   }
 
   /**
@@ -146,6 +305,7 @@ class VendingMachineServiceTest {
   @Test
   void buy_shouldReturnAnErrorIfTheProductIsNotFound() {
     // Arrange
+    doReturn(Mono.empty()).when(productService).decrementStock(anyString(), anyInt());
     doReturn(Mono.empty()).when(productService).getProductById(anyString());
 
     // Act & Assert
@@ -163,12 +323,15 @@ class VendingMachineServiceTest {
   @Test
   void buy_shouldReturnAnErrorIfThereAreNotEnoughAvailableItemsOfTheProductToBuy() {
     // Arrange
+    doReturn(Mono.empty()).when(productService).decrementStock(anyString(), anyInt());
     doReturn(Mono.just(product)).when(productService).getProductById(anyString());
 
     // Act & Assert
     StepVerifier.create(vendingMachineService.buy(productId, 117))
         .expectError(InsufficientProductException.class)
         .verify();
+
+    verify(userService, times(0)).withdraw(any(UUID.class), anyInt());
   }
 
   /**
@@ -178,7 +341,7 @@ class VendingMachineServiceTest {
   @Test
   void buy_shouldReturnAnErrorIfTheUserDoesntHaveEnoughDepositedAmountToBuyTheProduct() {
     // Arrange
-    doReturn(Mono.just(product)).when(productService).getProductById(anyString());
+    doReturn(Mono.just(product)).when(productService).decrementStock(productId, 17);
 
     // Act & Assert
     StepVerifier.create(vendingMachineService.buy(productId, 17))
@@ -193,13 +356,14 @@ class VendingMachineServiceTest {
   @Test
   void buy_shouldRemoveThePurchasedAmountFromTheProductIfBuyingIsPossible() {
     // Arrange
-    doReturn(Mono.just(product)).when(productService).getProductById(anyString());
+    doReturn(Mono.just(product)).when(productService).decrementStock(productId, 3);
 
     // Act & Assert
     StepVerifier.create(vendingMachineService.buy(productId, 3))
         .expectNextCount(1)
         .verifyComplete();
-    verify(productService, times(1)).update(any(Product.class));
+    verify(productService, times(1)).decrementStock(productId, 3);
+    verify(productService, times(0)).update(any(Product.class));
   }
 
   /**
@@ -209,13 +373,14 @@ class VendingMachineServiceTest {
   @Test
   void buy_shouldRemoveTheCostOfTheProductsFromTheUserDepositIfBuyingIsPossible() {
     // Arrange
-    doReturn(Mono.just(product)).when(productService).getProductById(anyString());
+    doReturn(Mono.just(product)).when(productService).decrementStock(productId, 3);
 
     // Act & Assert
     StepVerifier.create(vendingMachineService.buy(productId, 3))
         .expectNextCount(1)
         .verifyComplete();
-    verify(userService, times(1)).update(any(User.class));
+    verify(userService, times(1)).withdraw(user.getId(), 30);
+    verify(userService, times(0)).update(any(User.class));
   }
 
   /**
@@ -227,7 +392,7 @@ class VendingMachineServiceTest {
     // Arrange
     var productName = UUID.randomUUID().toString();
     product.setProductName(productName);
-    doReturn(Mono.just(product)).when(productService).getProductById(anyString());
+    doReturn(Mono.just(product)).when(productService).decrementStock(productId, 2);
     var expected = new VendingMachineController.PurchaseResponse(20,
         new VendingMachineController.ProductDetails(productId, productName, 10, 2),
         10);
@@ -237,4 +402,294 @@ class VendingMachineServiceTest {
         .expectNext(expected)
         .verifyComplete();
   }
+
+  /**
+   * @verifies return an error if the product is not found
+   * @see VendingMachineService#buyAll(String, List)
+   */
+  @Test
+  void buyAll_shouldReturnAnErrorIfTheProductIsNotFound() {
+    // Arrange
+    doReturn(Mono.empty()).when(productService).lockProduct(productId);
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.buyAll(productId, List.of(new PurchaseLanes.Purchase(user.getId(), 1))))
+        .expectError(InvalidProductException.class)
+        .verify();
+    verify(userService, times(0)).withdraw(any(UUID.class), anyInt());
+  }
+
+  /**
+   * @verifies price the purchases with the locked product instead of the cached one
+   * @see VendingMachineService#buyAll(String, List)
+   */
+  @Test
+  void buyAll_shouldPriceThePurchasesWithTheLockedProductInsteadOfTheCachedOne() {
+    // Arrange
+    lenient().doReturn(Mono.just(product.toBuilder().cost(5).build())).when(productService).getProductById(productId);
+    doReturn(Mono.just(product)).when(productService).lockProduct(productId);
+    doReturn(Mono.just(product)).when(productService).decrementStock(productId, 2);
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.buyAll(productId, List.of(new PurchaseLanes.Purchase(user.getId(), 2))))
+        .expectNextMatches(results -> results.get(0).response().amountSpent() == 20)
+        .verifyComplete();
+    verify(userService, times(1)).withdraw(user.getId(), 20);
+  }
+
+  /**
+   * @verifies charge the buyers in the order of their ids
+   * @see VendingMachineService#buyAll(String, List)
+   */
+  @Test
+  void buyAll_shouldChargeTheBuyersInTheOrderOfTheirIds() {
+    // Arrange
+    var firstUserId = new UUID(0, 1);
+    var secondUserId = new UUID(0, 2);
+    doReturn(Mono.just(product)).when(productService).lockProduct(productId);
+    doReturn(Mono.just(product)).when(productService).decrementStock(productId, 3);
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.buyAll(productId, List.of(new PurchaseLanes.Purchase(secondUserId, 1),
+            new PurchaseLanes.Purchase(firstUserId, 2))))
+        .expectNextMatches(results -> results.get(0).response().amountSpent() == 10
+            && results.get(1).response().amountSpent() == 20)
+        .verifyComplete();
+    var inOrder = inOrder(userService);
+    inOrder.verify(userService).withdraw(firstUserId, 20);
+    inOrder.verify(userService).withdraw(secondUserId, 10);
+  }
+
+  /**
+   * @verifies charge every buyer and remove the total amount with one update
+   * @see VendingMachineService#buyAll(String, List)
+   */
+  @Test
+  void buyAll_shouldChargeEveryBuyerAndRemoveTheTotalAmountWithOneUpdate() {
+    // Arrange
+    var otherUserId = UUID.randomUUID();
+    doReturn(Mono.just(product)).when(productService).lockProduct(productId);
+    doReturn(Mono.just(product)).when(productService).decrementStock(productId, 3);
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.buyAll(productId, List.of(new PurchaseLanes.Purchase(user.getId(), 1),
+            new PurchaseLanes.Purchase(otherUserId, 2))))
+        .expectNextMatches(results -> results.stream().allMatch(result -> result.error() == null))
+        .verifyComplete();
+    verify(userService, times(1)).withdraw(user.getId(), 10);
+    verify(userService, times(1)).withdraw(otherUserId, 20);
+    verify(productService, times(1)).decrementStock(anyString(), anyInt());
+  }
+
+  /**
+   * @verifies fail the purchases of buyers without enough deposit
+   * @see VendingMachineService#buyAll(String, List)
+   */
+  @Test
+  void buyAll_shouldFailThePurchasesOfBuyersWithoutEnoughDeposit() {
+    // Arrange
+    doReturn(Mono.just(product)).when(productService).lockProduct(productId);
+    doReturn(Mono.just(product)).when(productService).decrementStock(productId, 1);
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.buyAll(productId, List.of(new PurchaseLanes.Purchase(user.getId(), 1),
+            new PurchaseLanes.Purchase(user.getId(), 4))))
+        .expectNextMatches(results -> results.get(0).error() == null
+            && results.get(1).error() instanceof InsufficientFundsException)
+        .verifyComplete();
+    verify(productService, times(1)).decrementStock(productId, 1);
+  }
+
+  /**
+   * @verifies serve the purchases in order and refund the rest if there are not enough items
+   * @see VendingMachineService#buyAll(String, List)
+   */
+  @Test
+  void buyAll_shouldServeThePurchasesInOrderAndRefundTheRestIfThereAreNotEnoughItems() {
+    // Arrange
+    var otherUserId = UUID.randomUUID();
+    doReturn(Mono.just(product)).when(productService).lockProduct(productId);
+    doReturn(Mono.empty()).when(productService).decrementStock(productId, 3);
+    doReturn(Mono.just(product)).when(productService).decrementStock(productId, 1);
+    doReturn(Mono.empty()).when(productService).decrementStock(productId, 2);
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.buyAll(productId, List.of(new PurchaseLanes.Purchase(user.getId(), 1),
+            new PurchaseLanes.Purchase(otherUserId, 2))))
+        .expectNextMatches(results -> results.get(0).error() == null
+            && results.get(1).error() instanceof InsufficientProductException)
+        .verifyComplete();
+    verify(userService, times(1)).refund(otherUserId, 20);
+    verify(userService, times(0)).refund(user.getId(), 10);
+    verify(userService, times(0)).deposit(any(UUID.class), anyInt());
+  }
+
+  /**
+   * @verifies return an error if there are no items
+   * @see VendingMachineService#checkout(List)
+   */
+  @Test
+  void checkout_shouldReturnAnErrorIfThereAreNoItems() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.checkout(List.of()))
+        .expectError(IllegalArgumentException.class)
+        .verify();
+  }
+
+  /**
+   * @verifies return an error if an amount is not positive
+   * @see VendingMachineService#checkout(List)
+   */
+  @Test
+  void checkout_shouldReturnAnErrorIfAnAmountIsNotPositive() {
+    // Arrange
+    var items = List.of(new VendingMachineController.PurchaseRequest(productId, 1),
+        new VendingMachineController.PurchaseRequest(productId, -1));
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.checkout(items))
+        .expectError(IllegalArgumentException.class)
+        .verify();
+
+    verify(productService, times(0)).decrementStock(anyMap());
+  }
+
+  /**
+   * @verifies return an error if a product id is missing
+   * @see VendingMachineService#checkout(List)
+   */
+  @Test
+  void checkout_shouldReturnAnErrorIfAProductIdIsMissing() {
+    // Arrange
+    var items = List.of(new VendingMachineController.PurchaseRequest(productId, 1),
+        new VendingMachineController.PurchaseRequest(null, 1));
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.checkout(items))
+        .expectErrorMessage("Product id is required")
+        .verify();
+
+    verify(productService, times(0)).decrementStock(anyMap());
+  }
+
+  /**
+   * @verifies merge the lines of the same product
+   * @see VendingMachineService#checkout(List)
+   */
+  @Test
+  void checkout_shouldMergeTheLinesOfTheSameProduct() {
+    // Arrange
+    doReturn(Flux.just(product)).when(productService).decrementStock(anyMap());
+    var items = List.of(new VendingMachineController.PurchaseRequest(productId, 1),
+        new VendingMachineController.PurchaseRequest(productId, 2));
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.checkout(items))
+        .expectNextCount(1)
+        .verifyComplete();
+
+    verify(productService, times(1)).decrementStock(Map.of(product.getId(), 3));
+  }
+
+  /**
+   * @verifies return an error if a product is not found
+   * @see VendingMachineService#checkout(List)
+   */
+  @Test
+  void checkout_shouldReturnAnErrorIfAProductIsNotFound() {
+    // Arrange
+    var missingId = UUID.randomUUID().toString();
+    doReturn(Flux.just(product)).when(productService).decrementStock(anyMap());
+    doReturn(Mono.empty()).when(productService).getProductById(missingId);
+    var items = List.of(new VendingMachineController.PurchaseRequest(productId, 1),
+        new VendingMachineController.PurchaseRequest(missingId, 1));
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.checkout(items))
+        .expectError(InvalidProductException.class)
+        .verify();
+
+    verify(userService, times(0)).withdraw(any(UUID.class), anyInt());
+  }
+
+  /**
+   * @verifies return an error if there are not enough available items of a product
+   * @see VendingMachineService#checkout(List)
+   */
+  @Test
+  void checkout_shouldReturnAnErrorIfThereAreNotEnoughAvailableItemsOfAProduct() {
+    // Arrange
+    doReturn(Flux.empty()).when(productService).decrementStock(anyMap());
+    doReturn(Mono.just(product)).when(productService).getProductById(productId);
+    var items = List.of(new VendingMachineController.PurchaseRequest(productId, 101));
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.checkout(items))
+        .expectError(InsufficientProductException.class)
+        .verify();
+
+    verify(userService, times(0)).withdraw(any(UUID.class), anyInt());
+  }
+
+  /**
+   * @verifies deduct the total price from the user deposit once
+   * @see VendingMachineService#checkout(List)
+   */
+  @Test
+  void checkout_shouldDeductTheTotalPriceFromTheUserDepositOnce() {
+    // Arrange
+    var otherProduct = product.toBuilder().id(UUID.randomUUID()).cost(5).build();
+    doReturn(Flux.just(product, otherProduct)).when(productService).decrementStock(anyMap());
+    var items = List.of(new VendingMachineController.PurchaseRequest(productId, 1),
+        new VendingMachineController.PurchaseRequest(otherProduct.getId().toString(), 2));
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.checkout(items))
+        .expectNextCount(1)
+        .verifyComplete();
+
+    verify(userService, times(1)).withdraw(user.getId(), 20);
+  }
+
+  /**
+   * @verifies return an error if the user doesn't have enough deposited amount for all products
+   * @see VendingMachineService#checkout(List)
+   */
+  @Test
+  void checkout_shouldReturnAnErrorIfTheUserDoesntHaveEnoughDepositedAmountForAllProducts() {
+    // Arrange
+    var otherProduct = product.toBuilder().id(UUID.randomUUID()).cost(25).build();
+    doReturn(Flux.just(product, otherProduct)).when(productService).decrementStock(anyMap());
+    var items = List.of(new VendingMachineController.PurchaseRequest(productId, 1),
+        new VendingMachineController.PurchaseRequest(otherProduct.getId().toString(), 1));
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.checkout(items))
+        .expectError(InsufficientFundsException.class)
+        .verify();
+  }
+
+  /**
+   * @verifies return the products bought and the remaining deposit
+   * @see VendingMachineService#checkout(List)
+   */
+  @Test
+  void checkout_shouldReturnTheProductsBoughtAndTheRemainingDeposit() {
+    // Arrange
+    var otherProduct = product.toBuilder().id(UUID.randomUUID()).productName("other").cost(5).build();
+    doReturn(Flux.just(otherProduct, product)).when(productService).decrementStock(anyMap());
+    var items = List.of(new VendingMachineController.PurchaseRequest(productId, 1),
+        new VendingMachineController.PurchaseRequest(otherProduct.getId().toString(), 2));
+    var expected = new VendingMachineController.CheckoutResponse(20, List.of(
+        new VendingMachineController.ProductDetails(productId, product.getProductName(), 10, 1),
+        new VendingMachineController.ProductDetails(otherProduct.getId().toString(), "other", 5, 2)),
+        10);
+
+    // Act & Assert
+    StepVerifier.create(vendingMachineService.checkout(items))
+        .expectNext(expected)
+        .verifyComplete();
+  }
 }
@@ -0,0 +1,199 @@
+package com.jocotech.vendingmachine.product;
+
+import com.jocotech.vendingmachine.common.memory.InMemoryTransactionManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InMemoryProductRepositoryTest {
+  private InMemoryProductRepository productRepository;
+  private Product product;
+
+  @BeforeEach
+  public void setup() {
+    productRepository = new InMemoryProductRepository();
+    product = productRepository.save(Product.builder()
+            .sellerId(UUID.randomUUID())
+            .productName("product")
+            .cost(10)
+            .amountAvailable(5)
+            .build())
+        .block();
+  }
+
+  /**
+   * @verifies assign the id, the audit dates and the first version to a new entity
+   * @see InMemoryProductRepository#save(Product)
+   */
+  @Test
+  void save_shouldAssignTheIdTheAuditDatesAndTheFirstVersionToANewEntity() {
+    // Arrange
+
+    // Act & Assert
+    assertThat(product.getId()).isNotNull();
+    assertThat(product.getCreatedDate()).isNotNull();
+    assertThat(product.getLastModifiedDate()).isEqualTo(product.getCreatedDate());
+    assertThat(product.getVersion()).isZero();
+  }
+
+  /**
+   * @verifies return an error if the entity was changed after it was read
+   * @see InMemoryProductRepository#save(Product)
+   */
+  @Test
+  void save_shouldReturnAnErrorIfTheEntityWasChangedAfterItWasRead() {
+    // Arrange
+    productRepository.decrementStock(product.getId(), 1).block();
+
+    // Act & Assert
+    StepVerifier.create(productRepository.save(product.toBuilder().cost(20).build()))
+        .expectError(OptimisticLockingFailureException.class)
+        .verify();
+    StepVerifier.create(productRepository.findById(product.getId()))
+        .expectNextMatches(current -> current.getCost() == 10 && current.getVersion() == 1)
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies return the products following the given id in id order
+   * @see InMemoryProductRepository#findAllByIdGreaterThanOrderById(UUID, org.springframework.data.domain.Pageable)
+   */
+  @Test
+  void findAllByIdGreaterThanOrderById_shouldReturnTheProductsFollowingTheGivenIdInIdOrder() {
+    // Arrange
+    for (int i = 0; i < 10; i++) {
+      productRepository.save(Product.builder().sellerId(UUID.randomUUID()).productName("product " + i).build())
+          .block();
+    }
+    var ids = productRepository.findAllByOrderById().map(Product::getId).collectList().block();
+
+    // Act & Assert
+    StepVerifier.create(productRepository.findAllByIdGreaterThanOrderById(ids.get(2), PageRequest.of(0, 3))
+            .map(Product::getId))
+        .expectNext(ids.get(3), ids.get(4), ids.get(5))
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies return only the products of the seller following the given id in id order
+   * @see InMemoryProductRepository#findAllBySellerIdAndIdGreaterThanOrderById(UUID, UUID, org.springframework.data.domain.Pageable)
+   */
+  @Test
+  void findAllBySellerIdAndIdGreaterThanOrderById_shouldReturnOnlyTheProductsOfTheSellerFollowingTheGivenIdInIdOrder() {
+    // Arrange
+    var sellerId = UUID.randomUUID();
+    for (int i = 0; i < 10; i++) {
+      productRepository.save(Product.builder()
+              .sellerId(i % 2 == 0 ? sellerId : UUID.randomUUID())
+              .productName("product " + i)
+              .build())
+          .block();
+    }
+    var ids = productRepository.findAllByOrderById()
+        .filter(product -> sellerId.equals(product.getSellerId()))
+        .map(Product::getId)
+        .collectList()
+        .block();
+
+    // Act & Assert
+    StepVerifier.create(productRepository.findAllBySellerIdAndIdGreaterThanOrderById(sellerId, ids.get(0),
+                PageRequest.of(0, 3))
+            .map(Product::getId))
+        .expectNext(ids.get(1), ids.get(2), ids.get(3))
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies remove the amount from the available items
+   * @see InMemoryProductRepository#decrementStock(UUID, int)
+   */
+  @Test
+  void decrementStock_shouldRemoveTheAmountFromTheAvailableItems() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(productRepository.decrementStock(product.getId(), 3))
+        .expectNextMatches(updated -> updated.getAmountAvailable() == 2)
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies complete empty if there are not enough items
+   * @see InMemoryProductRepository#decrementStock(UUID, int)
+   */
+  @Test
+  void decrementStock_shouldCompleteEmptyIfThereAreNotEnoughItems() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(productRepository.decrementStock(product.getId(), 6))
+        .verifyComplete();
+    StepVerifier.create(productRepository.findById(product.getId()))
+        .expectNextMatches(unchanged -> unchanged.getAmountAvailable() == 5)
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies put the items back if the transaction rolls back
+   * @see InMemoryProductRepository#decrementStock(UUID, int)
+   */
+  @Test
+  void decrementStock_shouldPutTheItemsBackIfTheTransactionRollsBack() {
+    // Arrange
+    var transactionalOperator = TransactionalOperator.create(new InMemoryTransactionManager());
+
+    // Act & Assert
+    StepVerifier.create(productRepository.decrementStock(product.getId(), 3)
+            .then(Mono.error(new IllegalStateException()))
+            .as(transactionalOperator::transactional))
+        .expectError(IllegalStateException.class)
+        .verify();
+    StepVerifier.create(productRepository.findById(product.getId()))
+        .expectNextMatches(restored -> restored.getAmountAvailable() == 5)
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies create new products and restock the existing products of the seller
+   * @see InMemoryProductRepository#importAll(UUID, String[], Integer[], Integer[])
+   */
+  @Test
+  void importAll_shouldCreateNewProductsAndRestockTheExistingProductsOfTheSeller() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(productRepository.importAll(product.getSellerId(), new String[] {"product", "new"},
+            new Integer[] {15, 20}, new Integer[] {3, 4}))
+        .expectNextMatches(restocked -> restocked.getId().equals(product.getId())
+            && restocked.getCost() == 15 && restocked.getAmountAvailable() == 8 && restocked.getVersion() == 1)
+        .expectNextMatches(created -> created.getProductName().equals("new")
+            && created.getSellerId().equals(product.getSellerId()) && created.getAmountAvailable() == 4
+            && created.getVersion() == 0)
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies skip the products of other sellers
+   * @see InMemoryProductRepository#importAll(UUID, String[], Integer[], Integer[])
+   */
+  @Test
+  void importAll_shouldSkipTheProductsOfOtherSellers() {
+    // Arrange
+
+    // Act & Assert
+    StepVerifier.create(productRepository.importAll(UUID.randomUUID(), new String[] {"product"},
+            new Integer[] {15}, new Integer[] {3}))
+        .verifyComplete();
+    StepVerifier.create(productRepository.findById(product.getId()))
+        .expectNextMatches(unchanged -> unchanged.getCost() == 10 && unchanged.getAmountAvailable() == 5)
+        .verifyComplete();
+  }
+}
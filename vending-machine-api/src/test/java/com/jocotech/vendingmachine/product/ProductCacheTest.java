@@ -0,0 +1,197 @@
+package com.jocotech.vendingmachine.product;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ProductCacheTest {
+  @Mock
+  private ProductRepository productRepository;
+
+  private ProductCache productCache;
+
+  @BeforeEach
+  public void setup() {
+    productCache = new ProductCache(productRepository, new SimpleMeterRegistry());
+  }
+
+  private static Product product(UUID id, int amountAvailable, long version) {
+    return Product.builder()
+        .id(id)
+        .sellerId(UUID.randomUUID())
+        .productName("product")
+        .cost(10)
+        .amountAvailable(amountAvailable)
+        .version(version)
+        .build();
+  }
+
+  /**
+   * @verifies return the cached product without reading it
+   * @see ProductCache#get(UUID)
+   */
+  @Test
+  void get_shouldReturnTheCachedProductWithoutReadingIt() {
+    // Arrange
+    var product = product(UUID.randomUUID(), 5, 0);
+    productCache.put(product);
+
+    // Act & Assert
+    StepVerifier.create(productCache.get(product.getId()))
+        .expectNext(product)
+        .verifyComplete();
+    verify(productRepository, never()).findById(product.getId());
+  }
+
+  /**
+   * @verifies read a missing product through and cache it
+   * @see ProductCache#get(UUID)
+   */
+  @Test
+  void get_shouldReadAMissingProductThroughAndCacheIt() {
+    // Arrange
+    var product = product(UUID.randomUUID(), 5, 0);
+    when(productRepository.findById(product.getId())).thenReturn(Mono.just(product));
+
+    // Act & Assert
+    StepVerifier.create(productCache.get(product.getId()))
+        .expectNext(product)
+        .verifyComplete();
+    StepVerifier.create(productCache.get(product.getId()))
+        .expectNext(product)
+        .verifyComplete();
+    verify(productRepository, times(1)).findById(product.getId());
+  }
+
+  /**
+   * @verifies return the products following the id in unsigned id order
+   * @see ProductCache#getPage(UUID, int)
+   */
+  @Test
+  void getPage_shouldReturnTheProductsFollowingTheIdInUnsignedIdOrder() {
+    // Arrange
+    // the last two ids have the high bit set, they are negative as signed longs
+    var first = product(new UUID(0, 1), 5, 0);
+    var second = product(new UUID(Long.MAX_VALUE, 0), 5, 0);
+    var third = product(new UUID(Long.MIN_VALUE, 0), 5, 0);
+    var fourth = product(new UUID(-1, -1), 5, 0);
+    when(productRepository.findAll()).thenReturn(Flux.just(fourth, second, third, first));
+    productCache.reload().block();
+
+    // Act & Assert
+    StepVerifier.create(productCache.getPage(new UUID(0, 0), 2))
+        .expectNext(first, second)
+        .verifyComplete();
+    StepVerifier.create(productCache.getPage(second.getId(), 2))
+        .expectNext(third, fourth)
+        .verifyComplete();
+    StepVerifier.create(productCache.getPage(fourth.getId(), 2))
+        .verifyComplete();
+    verify(productRepository, never()).findAllByIdGreaterThanOrderById(any(UUID.class), any(Pageable.class));
+  }
+
+  /**
+   * @verifies read the page from the repository until the cache is loaded
+   * @see ProductCache#getPage(UUID, int)
+   */
+  @Test
+  void getPage_shouldReadThePageFromTheRepositoryUntilTheCacheIsLoaded() {
+    // Arrange
+    var after = UUID.randomUUID();
+    var product = product(UUID.randomUUID(), 5, 0);
+    when(productRepository.findAllByIdGreaterThanOrderById(after, PageRequest.of(0, 10)))
+        .thenReturn(Flux.just(product));
+
+    // Act & Assert
+    StepVerifier.create(productCache.getPage(after, 10))
+        .expectNext(product)
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies keep the newer version of the product
+   * @see ProductCache#put(Product)
+   */
+  @Test
+  void put_shouldKeepTheNewerVersionOfTheProduct() {
+    // Arrange
+    var id = UUID.randomUUID();
+    productCache.put(product(id, 3, 2));
+
+    // Act
+    productCache.put(product(id, 4, 1));
+
+    // Assert
+    StepVerifier.create(productCache.get(id))
+        .expectNextMatches(cached -> cached.getVersion() == 2 && cached.getAmountAvailable() == 3)
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies replace the cached products with the stored ones
+   * @see ProductCache#reload()
+   */
+  @Test
+  void reload_shouldReplaceTheCachedProductsWithTheStoredOnes() {
+    // Arrange
+    var deleted = product(UUID.randomUUID(), 5, 0);
+    var stored = product(UUID.randomUUID(), 5, 0);
+    productCache.put(deleted);
+    when(productRepository.findAll()).thenReturn(Flux.just(stored));
+
+    // Act
+    productCache.reload().block();
+
+    // Assert
+    StepVerifier.create(productCache.getAll())
+        .expectNext(stored)
+        .verifyComplete();
+    verify(productRepository, never()).findAllByOrderById();
+  }
+
+  /**
+   * @verifies keep the products written during the reload
+   * @see ProductCache#reload()
+   */
+  @Test
+  void reload_shouldKeepTheProductsWrittenDuringTheReload() {
+    // Arrange
+    var updated = product(UUID.randomUUID(), 5, 0);
+    var deleted = product(UUID.randomUUID(), 5, 0);
+    var stored = Sinks.many().unicast().<Product>onBackpressureBuffer();
+    when(productRepository.findAll()).thenReturn(stored.asFlux());
+    var reload = productCache.reload().toFuture();
+
+    // Act
+    // the reload read the products before these writes were committed
+    productCache.put(updated.toBuilder().amountAvailable(3).version(1L).build());
+    productCache.evict(deleted.getId());
+    stored.tryEmitNext(updated);
+    stored.tryEmitNext(deleted);
+    stored.tryEmitComplete();
+    reload.join();
+
+    // Assert
+    StepVerifier.create(productCache.getAll())
+        .expectNextMatches(cached -> cached.getId().equals(updated.getId()) && cached.getAmountAvailable() == 3)
+        .verifyComplete();
+  }
+}
@@ -0,0 +1,100 @@
+package com.jocotech.vendingmachine.product;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProductEventsTest {
+  private ProductEvents productEvents;
+
+  @BeforeEach
+  public void setup() {
+    productEvents = new ProductEvents(new SimpleMeterRegistry());
+  }
+
+  private static Product product(UUID id, int amountAvailable) {
+    return Product.builder()
+        .id(id)
+        .productName("Cola")
+        .cost(50)
+        .amountAvailable(amountAvailable)
+        .build();
+  }
+
+  /**
+   * @verifies send the snapshot followed by the changes
+   * @see ProductEvents#subscribe(Flux)
+   */
+  @Test
+  void subscribe_shouldSendTheSnapshotFollowedByTheChanges() {
+    // Arrange
+    var cola = product(UUID.randomUUID(), 10);
+    var water = product(UUID.randomUUID(), 5);
+
+    // Act & Assert
+    StepVerifier.create(productEvents.subscribe(Flux.just(cola)))
+        .assertNext(event -> assertThat(event.product()).isEqualTo(cola))
+        .then(() -> productEvents.updated(water))
+        .assertNext(event -> assertThat(event.product()).isEqualTo(water))
+        .then(() -> productEvents.deleted(cola.getId()))
+        .assertNext(event -> {
+          assertThat(event.type()).isEqualTo(ProductEvents.Type.DELETED);
+          assertThat(event.productId()).isEqualTo(cola.getId());
+        })
+        .thenCancel()
+        .verify();
+  }
+
+  /**
+   * @verifies only send the latest change of a product to a slow subscriber
+   * @see ProductEvents#subscribe(Flux)
+   */
+  @Test
+  void subscribe_shouldOnlySendTheLatestChangeOfAProductToASlowSubscriber() {
+    // Arrange
+    var id = UUID.randomUUID();
+    var other = product(UUID.randomUUID(), 1);
+
+    // Act & Assert
+    StepVerifier.create(productEvents.subscribe(Flux.empty()), 0)
+        .then(() -> {
+          productEvents.updated(product(id, 3));
+          productEvents.updated(other);
+          productEvents.updated(product(id, 2));
+          productEvents.updated(product(id, 1));
+        })
+        .thenRequest(10)
+        .assertNext(event -> assertThat(event.product()).isEqualTo(product(id, 1)))
+        .assertNext(event -> assertThat(event.product()).isEqualTo(other))
+        .expectNoEvent(Duration.ofMillis(50))
+        .thenCancel()
+        .verify();
+  }
+
+  /**
+   * @verifies not send the snapshot of a product that changed after subscribing
+   * @see ProductEvents#subscribe(Flux)
+   */
+  @Test
+  void subscribe_shouldNotSendTheSnapshotOfAProductThatChangedAfterSubscribing() {
+    // Arrange
+    var id = UUID.randomUUID();
+    var snapshot = Flux.just(product(id, 10))
+        .delaySubscription(Duration.ofMillis(50));
+
+    // Act & Assert
+    StepVerifier.create(productEvents.subscribe(snapshot))
+        .then(() -> productEvents.updated(product(id, 9)))
+        .assertNext(event -> assertThat(event.product().getAmountAvailable()).isEqualTo(9))
+        .expectNoEvent(Duration.ofMillis(100))
+        .thenCancel()
+        .verify();
+  }
+}
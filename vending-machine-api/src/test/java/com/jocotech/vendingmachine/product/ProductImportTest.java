@@ -0,0 +1,139 @@
+package com.jocotech.vendingmachine.product;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ProductImportTest {
+  @Mock
+  private ProductService productService;
+
+  private ProductImport productImport;
+
+  @BeforeEach
+  public void setup() {
+    productImport = new ProductImport(productService, new ObjectMapper(), 2);
+    // echoes the parsed lines, so the test can check what was parsed
+    when(productService.importProducts(anyList())).thenAnswer(invocation -> {
+      List<ProductImport.Line> lines = invocation.getArgument(0);
+      return Flux.fromIterable(lines)
+          .map(line -> new ProductImport.Result(line.number(),
+              line.productName() + "/" + line.cost() + "/" + line.amount(),
+              line.error() == null ? ProductImport.Status.CREATED : ProductImport.Status.REJECTED, null, line.error()));
+    });
+  }
+
+  // splits the upload into buffers at arbitrary points, like the chunks of a request body
+  private static Flux<DataBuffer> upload(String content) {
+    var bytes = content.getBytes(StandardCharsets.UTF_8);
+    return Flux.range(0, (bytes.length + 6) / 7)
+        .map(i -> DefaultDataBufferFactory.sharedInstance.wrap(
+            Arrays.copyOfRange(bytes, i * 7, Math.min(bytes.length, i * 7 + 7))));
+  }
+
+  /**
+   * @verifies import the lines of an ndjson upload
+   * @see ProductImport#importProducts(Flux, MediaType)
+   */
+  @Test
+  void importProducts_shouldImportTheLinesOfAnNdjsonUpload() {
+    // Arrange
+    var content = """
+        {"productName": "Cola", "cost": 50, "amount": 10}
+
+        {"productName": "Water", "cost": 30, "amount": 4}
+        {"productName": "Juice", "cost": 40, "amount": 2}
+        """;
+
+    // Act & Assert
+    StepVerifier.create(productImport.importProducts(upload(content), MediaType.APPLICATION_NDJSON))
+        .expectNextMatches(result -> result.line() == 1 && result.productName().equals("Cola/50/10"))
+        .expectNextMatches(result -> result.line() == 3 && result.productName().equals("Water/30/4"))
+        .expectNextMatches(result -> result.line() == 4 && result.productName().equals("Juice/40/2"))
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies import the lines of a csv upload and skip its header
+   * @see ProductImport#importProducts(Flux, MediaType)
+   */
+  @Test
+  void importProducts_shouldImportTheLinesOfACsvUploadAndSkipItsHeader() {
+    // Arrange
+    var content = "productName,cost,amount\r\nCola,50,10\r\n\"Salt, pepper & \"\"chips\"\"\", 25, 3\r\n";
+
+    // Act & Assert
+    StepVerifier.create(productImport.importProducts(upload(content), ProductImport.TEXT_CSV))
+        .expectNextMatches(result -> result.line() == 2 && result.productName().equals("Cola/50/10"))
+        .expectNextMatches(result -> result.line() == 3
+            && result.productName().equals("Salt, pepper & \"chips\"/25/3"))
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies reject malformed lines
+   * @see ProductImport#importProducts(Flux, MediaType)
+   */
+  @Test
+  void importProducts_shouldRejectMalformedLines() {
+    // Arrange
+    var content = "Cola\nWater,ten,4\n";
+
+    // Act & Assert
+    StepVerifier.create(productImport.importProducts(upload(content), ProductImport.TEXT_CSV))
+        .expectNextMatches(result -> result.error().equals("Expected productName,cost,amount"))
+        .expectNextMatches(result -> result.error().equals("Cost and amount must be whole numbers"))
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies keep the first column of a malformed csv line
+   * @see ProductImport#importProducts(Flux, MediaType)
+   */
+  @Test
+  void importProducts_shouldKeepTheFirstColumnOfAMalformedCsvLine() {
+    // Arrange
+    var content = "Cola\n\"Salt, pepper\",ten,4\n";
+
+    // Act & Assert
+    StepVerifier.create(productImport.importProducts(upload(content), ProductImport.TEXT_CSV))
+        .expectNextMatches(result -> result.productName().equals("Cola/null/null"))
+        .expectNextMatches(result -> result.productName().equals("Salt, pepper/null/null"))
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies reject a json null line
+   * @see ProductImport#importProducts(Flux, MediaType)
+   */
+  @Test
+  void importProducts_shouldRejectAJsonNullLine() {
+    // Arrange
+    var content = """
+        null
+        {"productName": "Cola", "cost": 50, "amount": 10}
+        """;
+
+    // Act & Assert
+    StepVerifier.create(productImport.importProducts(upload(content), MediaType.APPLICATION_NDJSON))
+        .expectNextMatches(result -> result.line() == 1 && result.error().equals("Malformed JSON"))
+        .expectNextMatches(result -> result.line() == 2 && result.productName().equals("Cola/50/10"))
+        .verifyComplete();
+  }
+}
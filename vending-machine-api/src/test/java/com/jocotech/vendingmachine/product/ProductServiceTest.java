@@ -0,0 +1,281 @@
+package com.jocotech.vendingmachine.product;
+
+import com.jocotech.vendingmachine.common.memory.InMemoryTransactionManager;
+import com.jocotech.vendingmachine.common.notification.ChangeNotification;
+import com.jocotech.vendingmachine.common.persistence.ConflictRetry;
+import com.jocotech.vendingmachine.common.security.login.LoginService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ProductServiceTest {
+  @Mock
+  private LoginService loginService;
+
+  private InMemoryProductRepository productRepository;
+  private ProductCache productCache;
+  private ProductEvents productEvents;
+  private ProductService productService;
+
+  @BeforeEach
+  public void setup() {
+    var meterRegistry = new SimpleMeterRegistry();
+    productRepository = new InMemoryProductRepository();
+    productCache = new ProductCache(productRepository, meterRegistry);
+    productEvents = new ProductEvents(meterRegistry);
+    productService = new ProductService(productRepository, loginService, productCache,
+        new ConflictRetry(3, 1, meterRegistry), productEvents, Optional.empty());
+  }
+
+  /**
+   * @verifies page through the products in id order
+   * @see ProductService#getProducts(String, int)
+   */
+  @Test
+  void getProducts_shouldPageThroughTheProductsInIdOrder() {
+    // Arrange
+    var products = Flux.range(0, 3)
+        .concatMap(i -> productRepository.save(Product.builder().productName("product" + i).cost(50)
+            .amountAvailable(5).build()))
+        .map(Product::getId)
+        .sort(ProductCache.ID_ORDER)
+        .collectList()
+        .block();
+    productCache.reload().block();
+
+    // Act & Assert
+    StepVerifier.create(productService.getProducts(null, 2).map(Product::getId))
+        .expectNext(products.get(0), products.get(1))
+        .verifyComplete();
+    StepVerifier.create(productService.getProducts(products.get(1).toString(), 2).map(Product::getId))
+        .expectNext(products.get(2))
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies reject a page size outside of 1 to 500
+   * @see ProductService#getProducts(String, int)
+   */
+  @Test
+  void getProducts_shouldRejectAPageSizeOutsideOf1To500() {
+    // Act & Assert
+    assertThatThrownBy(() -> productService.getProducts(null, 0))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> productService.getProducts(null, ProductService.MAX_PAGE_SIZE + 1))
+        .isInstanceOf(IllegalArgumentException.class);
+    StepVerifier.create(productService.getProducts(null, ProductService.MAX_PAGE_SIZE))
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies refresh the cached product
+   * @see ProductService#onChangeNotification(ChangeNotification)
+   */
+  @Test
+  void onChangeNotification_shouldRefreshTheCachedProduct() {
+    // Arrange
+    var product = productRepository.save(Product.builder().productName("Cola").cost(50).amountAvailable(5).build())
+        .block();
+    productCache.put(product);
+    // changed by another instance
+    productRepository.decrementStock(product.getId(), 2).block();
+
+    // Act & Assert
+    StepVerifier.create(productEvents.subscribe(Flux.empty()))
+        .then(() -> productService.onChangeNotification(
+            new ChangeNotification(ChangeNotification.PRODUCT, product.getId())))
+        .assertNext(event -> assertThat(event.product().getAmountAvailable()).isEqualTo(3))
+        .thenCancel()
+        .verify();
+    StepVerifier.create(productCache.get(product.getId()))
+        .assertNext(cached -> assertThat(cached.getAmountAvailable()).isEqualTo(3))
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies evict a deleted product
+   * @see ProductService#onChangeNotification(ChangeNotification)
+   */
+  @Test
+  void onChangeNotification_shouldEvictADeletedProduct() {
+    // Arrange
+    var product = productRepository.save(Product.builder().productName("Cola").cost(50).amountAvailable(5).build())
+        .block();
+    productCache.put(product);
+    // deleted by another instance
+    productRepository.deleteById(product.getId()).block();
+
+    // Act & Assert
+    StepVerifier.create(productEvents.subscribe(Flux.empty()))
+        .then(() -> productService.onChangeNotification(
+            new ChangeNotification(ChangeNotification.PRODUCT, product.getId())))
+        .assertNext(event -> assertThat(event.type()).isEqualTo(ProductEvents.Type.DELETED))
+        .thenCancel()
+        .verify();
+    StepVerifier.create(productCache.get(product.getId()))
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies create and restock the valid lines and reject the others
+   * @see ProductService#importProducts(List)
+   */
+  @Test
+  void importProducts_shouldCreateAndRestockTheValidLinesAndRejectTheOthers() {
+    // Arrange
+    var sellerId = UUID.randomUUID();
+    when(loginService.getCurrentUserId()).thenReturn(Mono.just(sellerId));
+    var existing = productRepository.save(Product.builder()
+            .sellerId(sellerId).productName("Cola").cost(50).amountAvailable(5).build())
+        .block();
+    var lines = List.of(
+        new ProductImport.Line(1, "Cola", 55, 10, null),
+        new ProductImport.Line(2, "Water", 30, 4, null),
+        new ProductImport.Line(3, "Juice", 33, 1, null),
+        ProductImport.Line.malformed(4, "Malformed JSON"),
+        new ProductImport.Line(5, "Water", 35, 2, null));
+
+    // Act & Assert
+    StepVerifier.create(productService.importProducts(lines))
+        .expectNextMatches(result -> result.status() == ProductImport.Status.RESTOCKED
+            && result.productId().equals(existing.getId()))
+        .expectNextMatches(result -> result.line() == 2 && result.status() == ProductImport.Status.CREATED)
+        .expectNextMatches(result -> result.status() == ProductImport.Status.REJECTED
+            && result.error().equals("Product cost must be in multiples of 5"))
+        .expectNextMatches(result -> result.status() == ProductImport.Status.REJECTED
+            && result.error().equals("Malformed JSON"))
+        .expectNextMatches(result -> result.line() == 5 && result.status() == ProductImport.Status.CREATED)
+        .verifyComplete();
+    StepVerifier.create(productCache.get(existing.getId()))
+        .assertNext(cola -> assertThat(cola.getAmountAvailable()).isEqualTo(15))
+        .verifyComplete();
+    StepVerifier.create(productRepository.findAll().filter(product -> product.getProductName().equals("Water")))
+        .assertNext(water -> {
+          assertThat(water.getCost()).isEqualTo(35);
+          assertThat(water.getAmountAvailable()).isEqualTo(6);
+        })
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies reject the products of other sellers
+   * @see ProductService#importProducts(List)
+   */
+  @Test
+  void importProducts_shouldRejectTheProductsOfOtherSellers() {
+    // Arrange
+    when(loginService.getCurrentUserId()).thenReturn(Mono.just(UUID.randomUUID()));
+    productRepository.save(Product.builder()
+            .sellerId(UUID.randomUUID()).productName("Cola").cost(50).amountAvailable(5).build())
+        .block();
+
+    // Act & Assert
+    StepVerifier.create(productService.importProducts(List.of(new ProductImport.Line(1, "Cola", 55, 10, null))))
+        .expectNextMatches(result -> result.status() == ProductImport.Status.REJECTED
+            && result.error().equals("Product belongs to another seller"))
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies reject a cost that is not positive
+   * @see ProductService#importProducts(List)
+   */
+  @Test
+  void importProducts_shouldRejectACostThatIsNotPositive() {
+    // Act & Assert
+    StepVerifier.create(productService.importProducts(List.of(new ProductImport.Line(1, "Cola", -5, 10, null),
+            new ProductImport.Line(2, "Water", 0, 4, null))))
+        .expectNextMatches(result -> result.error().equals("Cost must be positive"))
+        .expectNextMatches(result -> result.error().equals("Cost must be positive"))
+        .verifyComplete();
+    StepVerifier.create(productRepository.findAll())
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies cache the product once the transaction commits
+   * @see ProductService#decrementStock(String, int)
+   */
+  @Test
+  void decrementStock_shouldCacheTheProductOnceTheTransactionCommits() {
+    // Arrange
+    var product = productRepository.save(Product.builder().productName("Cola").cost(50).amountAvailable(5).build())
+        .block();
+    productCache.put(product);
+    var transactionalOperator = TransactionalOperator.create(new InMemoryTransactionManager());
+
+    // Act & Assert
+    StepVerifier.create(productService.decrementStock(product.getId().toString(), 2)
+            .flatMap(decremented -> productCache.get(product.getId()))
+            .as(transactionalOperator::transactional))
+        .assertNext(cached -> assertThat(cached.getAmountAvailable()).isEqualTo(5))
+        .verifyComplete();
+    StepVerifier.create(productCache.get(product.getId()))
+        .assertNext(cached -> assertThat(cached.getAmountAvailable()).isEqualTo(3))
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies not cache the product if the transaction rolls back
+   * @see ProductService#decrementStock(String, int)
+   */
+  @Test
+  void decrementStock_shouldNotCacheTheProductIfTheTransactionRollsBack() {
+    // Arrange
+    var product = productRepository.save(Product.builder().productName("Cola").cost(50).amountAvailable(5).build())
+        .block();
+    productCache.put(product);
+    var transactionalOperator = TransactionalOperator.create(new InMemoryTransactionManager());
+
+    // Act & Assert
+    StepVerifier.create(productService.decrementStock(product.getId().toString(), 2)
+            .then(Mono.error(new IllegalStateException()))
+            .as(transactionalOperator::transactional))
+        .expectError(IllegalStateException.class)
+        .verify();
+    StepVerifier.create(productCache.get(product.getId()))
+        .assertNext(cached -> assertThat(cached.getAmountAvailable()).isEqualTo(5))
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies evict the product once the transaction commits
+   * @see ProductService#deleteProduct(String)
+   */
+  @Test
+  void deleteProduct_shouldEvictTheProductOnceTheTransactionCommits() {
+    // Arrange
+    var sellerId = UUID.randomUUID();
+    when(loginService.getCurrentUserId()).thenReturn(Mono.just(sellerId));
+    var product = productRepository.save(Product.builder()
+            .sellerId(sellerId).productName("Cola").cost(50).amountAvailable(5).build())
+        .block();
+    productCache.put(product);
+    var transactionalOperator = TransactionalOperator.create(new InMemoryTransactionManager());
+
+    // Act & Assert
+    StepVerifier.create(productService.deleteProduct(product.getId().toString())
+            .then(productCache.get(product.getId()))
+            .as(transactionalOperator::transactional))
+        .expectNextCount(1)
+        .verifyComplete();
+    StepVerifier.create(productCache.get(product.getId()))
+        .verifyComplete();
+  }
+}
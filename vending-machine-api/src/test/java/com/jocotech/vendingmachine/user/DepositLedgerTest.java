@@ -0,0 +1,219 @@
+package com.jocotech.vendingmachine.user;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+import reactor.test.publisher.PublisherProbe;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class DepositLedgerTest {
+  private static final UUID USER_ID = UUID.randomUUID();
+  private static final UUID OTHER_USER_ID = UUID.randomUUID();
+
+  @Mock
+  private DepositLedgerRepository depositLedgerRepository;
+
+  private DepositLedger depositLedger(int queueCapacity) {
+    return new DepositLedger(depositLedgerRepository, queueCapacity, 100, new SimpleMeterRegistry());
+  }
+
+  /**
+   * @verifies append the amount and return the deposit of the user
+   * @see DepositLedger#append(UUID, int)
+   */
+  @Test
+  void append_shouldAppendTheAmountAndReturnTheDepositOfTheUser() {
+    // Arrange
+    when(depositLedgerRepository.append(aryEq(new UUID[] {USER_ID}), aryEq(new Integer[] {50})))
+        .thenReturn(Flux.just(new DepositLedgerRepository.UserDeposit(USER_ID, 80)));
+
+    // Act & Assert
+    StepVerifier.create(depositLedger(10).append(USER_ID, 50))
+        .expectNext(80)
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies complete empty if the user does not exist
+   * @see DepositLedger#append(UUID, int)
+   */
+  @Test
+  void append_shouldCompleteEmptyIfTheUserDoesNotExist() {
+    // Arrange
+    when(depositLedgerRepository.append(any(), any())).thenReturn(Flux.empty());
+
+    // Act & Assert
+    StepVerifier.create(depositLedger(10).append(USER_ID, 50))
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies write the deposits waiting while an insert runs with the next insert
+   * @see DepositLedger#append(UUID, int)
+   */
+  @Test
+  void append_shouldWriteTheDepositsWaitingWhileAnInsertRunsWithTheNextInsert() {
+    // Arrange
+    var depositLedger = depositLedger(10);
+    var firstInsert = Sinks.many().unicast().<DepositLedgerRepository.UserDeposit>onBackpressureBuffer();
+    when(depositLedgerRepository.append(any(), any()))
+        .thenReturn(firstInsert.asFlux())
+        .thenReturn(Flux.just(new DepositLedgerRepository.UserDeposit(USER_ID, 30),
+            new DepositLedgerRepository.UserDeposit(OTHER_USER_ID, 50)));
+    var first = depositLedger.append(USER_ID, 10).toFuture();
+    var second = depositLedger.append(USER_ID, 20).toFuture();
+    var third = depositLedger.append(OTHER_USER_ID, 50).toFuture();
+
+    // Act
+    firstInsert.tryEmitNext(new DepositLedgerRepository.UserDeposit(USER_ID, 10));
+    firstInsert.tryEmitComplete();
+
+    // Assert
+    assertThat(first.join()).isEqualTo(10);
+    assertThat(second.join()).isEqualTo(30);
+    assertThat(third.join()).isEqualTo(50);
+    verify(depositLedgerRepository).append(aryEq(new UUID[] {USER_ID}), aryEq(new Integer[] {10}));
+    verify(depositLedgerRepository).append(aryEq(new UUID[] {USER_ID, OTHER_USER_ID}), aryEq(new Integer[] {20, 50}));
+  }
+
+  /**
+   * @verifies reject the deposit if the queue is full
+   * @see DepositLedger#append(UUID, int)
+   */
+  @Test
+  void append_shouldRejectTheDepositIfTheQueueIsFull() {
+    // Arrange
+    var depositLedger = depositLedger(1);
+    when(depositLedgerRepository.append(any(), any())).thenReturn(Flux.never());
+    // the first deposit is taken by the insert that never completes, the second one fills the queue
+    depositLedger.append(USER_ID, 10).subscribe();
+    depositLedger.append(USER_ID, 20).subscribe();
+
+    // Act & Assert
+    StepVerifier.create(depositLedger.append(USER_ID, 50))
+        .expectErrorSatisfies(e -> assertThat(((ResponseStatusException) e).getStatusCode())
+            .isEqualTo(HttpStatus.SERVICE_UNAVAILABLE))
+        .verify();
+  }
+
+  /**
+   * @verifies fail the deposits of a failed insert and go on with the next one
+   * @see DepositLedger#append(UUID, int)
+   */
+  @Test
+  void append_shouldFailTheDepositsOfAFailedInsertAndGoOnWithTheNextOne() {
+    // Arrange
+    var depositLedger = depositLedger(10);
+    when(depositLedgerRepository.append(any(), any()))
+        .thenReturn(Flux.error(new IllegalStateException("Connection lost")))
+        .thenReturn(Flux.just(new DepositLedgerRepository.UserDeposit(USER_ID, 20)));
+
+    // Act & Assert
+    StepVerifier.create(depositLedger.append(USER_ID, 10))
+        .expectError(IllegalStateException.class)
+        .verify();
+    StepVerifier.create(depositLedger.append(USER_ID, 20))
+        .expectNext(20)
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies append every amount as an entry of its own
+   * @see DepositLedger#appendAll(UUID, List)
+   */
+  @Test
+  void appendAll_shouldAppendEveryAmountAsAnEntryOfItsOwn() {
+    // Arrange
+    when(depositLedgerRepository.append(aryEq(new UUID[] {USER_ID, USER_ID, USER_ID}),
+        aryEq(new Integer[] {50, 20, 5})))
+        .thenReturn(Flux.just(new DepositLedgerRepository.UserDeposit(USER_ID, 105)));
+
+    // Act & Assert
+    StepVerifier.create(depositLedger(10).appendAll(USER_ID, List.of(50, 20, 5)))
+        .expectNext(105)
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies reject all the amounts if they don't fit in the queue
+   * @see DepositLedger#appendAll(UUID, List)
+   */
+  @Test
+  void appendAll_shouldRejectAllTheAmountsIfTheyDontFitInTheQueue() {
+    // Arrange
+    var depositLedger = depositLedger(2);
+
+    // Act & Assert
+    StepVerifier.create(depositLedger.appendAll(USER_ID, List.of(50, 20, 5)))
+        .expectErrorSatisfies(e -> assertThat(((ResponseStatusException) e).getStatusCode())
+            .isEqualTo(HttpStatus.SERVICE_UNAVAILABLE))
+        .verify();
+    verify(depositLedgerRepository, never()).append(any(), any());
+  }
+
+  /**
+   * @verifies fold the ledger of the user
+   * @see DepositLedger#fold(UUID)
+   */
+  @Test
+  void fold_shouldFoldTheLedgerOfTheUser() {
+    // Arrange
+    when(depositLedgerRepository.fold(USER_ID)).thenReturn(Mono.just(70));
+
+    // Act & Assert
+    StepVerifier.create(depositLedger(10).fold(USER_ID))
+        .expectNext(70)
+        .verifyComplete();
+  }
+
+  /**
+   * @verifies fold the ledger of every user
+   * @see DepositLedger#foldAll()
+   */
+  @Test
+  void foldAll_shouldFoldTheLedgerOfEveryUser() {
+    // Arrange
+    var fold = PublisherProbe.of(Mono.just(2));
+    when(depositLedgerRepository.foldAll()).thenReturn(fold.mono());
+
+    // Act
+    depositLedger(10).foldAll();
+
+    // Assert
+    fold.assertWasSubscribed();
+  }
+
+  /**
+   * @verifies ignore a failed fold
+   * @see DepositLedger#foldAll()
+   */
+  @Test
+  void foldAll_shouldIgnoreAFailedFold() {
+    // Arrange
+    var fold = PublisherProbe.<Integer>of(Mono.error(new IllegalStateException("Connection lost")));
+    when(depositLedgerRepository.foldAll()).thenReturn(fold.mono());
+
+    // Act & Assert
+    assertThatCode(() -> depositLedger(10).foldAll()).doesNotThrowAnyException();
+    fold.assertWasSubscribed();
+  }
+}
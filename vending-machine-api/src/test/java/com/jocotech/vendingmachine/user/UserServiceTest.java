@@ -0,0 +1,95 @@
+package com.jocotech.vendingmachine.user;
+
+import com.jocotech.vendingmachine.common.persistence.ConflictRetry;
+import com.jocotech.vendingmachine.common.security.PasswordHasher;
+import com.jocotech.vendingmachine.common.security.PrincipalCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UserServiceTest {
+  private static final UUID USER_ID = UUID.randomUUID();
+
+  @Mock
+  private UserRepository userRepository;
+  @Mock
+  private PasswordHasher passwordHasher;
+  @Mock
+  private PrincipalCache principalCache;
+  @Mock
+  private ConflictRetry conflictRetry;
+  @Mock
+  private DepositLedger depositLedger;
+
+  private UserService userService;
+
+  @BeforeEach
+  public void setup() {
+    userService = new UserService(userRepository, passwordHasher, principalCache, conflictRetry,
+        Optional.of(depositLedger), Optional.empty());
+  }
+
+  /**
+   * @verifies add the amount to the deposit without the deposit ledger
+   * @see UserService#refund(UUID, int)
+   */
+  @Test
+  void refund_shouldAddTheAmountToTheDepositWithoutTheDepositLedger() {
+    // Arrange
+    when(userRepository.deposit(USER_ID, 20)).thenReturn(Mono.just(50));
+
+    // Act & Assert
+    StepVerifier.create(userService.refund(USER_ID, 20))
+        .expectNext(50)
+        .verifyComplete();
+    verify(userRepository).deposit(USER_ID, 20);
+    verify(depositLedger, never()).append(any(UUID.class), anyInt());
+  }
+
+  /**
+   * @verifies append every coin to the deposit ledger
+   * @see UserService#depositAll(UUID, List)
+   */
+  @Test
+  void depositAll_shouldAppendEveryCoinToTheDepositLedger() {
+    // Arrange
+    when(depositLedger.appendAll(USER_ID, List.of(50, 20))).thenReturn(Mono.just(100));
+
+    // Act & Assert
+    StepVerifier.create(userService.depositAll(USER_ID, List.of(50, 20)))
+        .expectNext(100)
+        .verifyComplete();
+    verify(userRepository, never()).deposit(any(UUID.class), anyInt());
+  }
+
+  /**
+   * @verifies fold the deposit ledger before reading the deposit
+   * @see UserService#getDeposit(UUID)
+   */
+  @Test
+  void getDeposit_shouldFoldTheDepositLedgerBeforeReadingTheDeposit() {
+    // Arrange
+    when(depositLedger.fold(USER_ID)).thenReturn(Mono.just(70));
+
+    // Act & Assert
+    StepVerifier.create(userService.getDeposit(USER_ID))
+        .expectNext(70)
+        .verifyComplete();
+    verify(userRepository, never()).findById(any(UUID.class));
+  }
+}
@@ -0,0 +1,32 @@
+package com.jocotech.vendingmachine.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the standard JMH command line options. Unless told otherwise with {@code -rf}/{@code -rff}
+ * the results are written as JSON to {@code jmh-result.json}, so runs can be compared with each other.
+ * <pre>
+ *   (cd vending-machine-api &amp;&amp; mvn install -DskipTests)
+ *   (cd vending-machine-benchmarks &amp;&amp; mvn package &amp;&amp; java -jar target/benchmarks.jar [JMH options])
+ * </pre>
+ */
+public class BenchmarkRunner {
+  private static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+  public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+    var commandLineOptions = new CommandLineOptions(args);
+    var options = new OptionsBuilder().parent(commandLineOptions);
+    if (!commandLineOptions.getResultFormat().hasValue()) {
+      options.resultFormat(ResultFormatType.JSON);
+    }
+    if (!commandLineOptions.getResult().hasValue()) {
+      options.result(DEFAULT_RESULT_FILE);
+    }
+    new Runner(options.build()).run();
+  }
+}
@@ -0,0 +1,54 @@
+package com.jocotech.vendingmachine.common.error;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jocotech.vendingmachine.machine.InvalidCoinException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating a failure and writing its error response, for a domain exception with a precomputed (4xx) response and an
+ * unhandled (500) exception.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WebfluxGlobalErrorHandlerBenchmark {
+  private WebfluxGlobalErrorHandler errorHandler;
+
+  @Setup
+  public void setup() throws JsonProcessingException {
+    var objectMapper = new ObjectMapper();
+    errorHandler = new WebfluxGlobalErrorHandler(objectMapper, new ErrorCatalog(objectMapper, new SimpleMeterRegistry()));
+  }
+
+  @Benchmark
+  public MockServerWebExchange handledError() {
+    var exchange = MockServerWebExchange.from(MockServerHttpRequest.post("/deposit"));
+    errorHandler.handle(exchange, new InvalidCoinException()).block();
+    return exchange;
+  }
+
+  @Benchmark
+  public MockServerWebExchange unhandledError() {
+    var exchange = MockServerWebExchange.from(MockServerHttpRequest.post("/buy"));
+    errorHandler.handle(exchange, new IllegalStateException("Unexpected failure")).block();
+    return exchange;
+  }
+}
@@ -0,0 +1,65 @@
+package com.jocotech.vendingmachine.common.security;
+
+import com.jocotech.vendingmachine.user.Role;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token generation, and parsing a token with and without the verified token cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtTokenUtilBenchmark {
+  private static final String SECRET = "Mary had a little lamb, Its fleece was white as snow; And everywhere that Mary went";
+
+  private JwtTokenUtil uncached;
+  private JwtTokenUtil cached;
+  private UUID userId;
+  private String token;
+
+  @Setup
+  public void setup() {
+    uncached = jwtTokenUtil(0);
+    cached = jwtTokenUtil(10_000);
+    userId = UUID.randomUUID();
+    token = uncached.generateToken(userId, Role.ROLE_BUYER);
+  }
+
+  private static JwtTokenUtil jwtTokenUtil(long cacheSize) {
+    var jwtTokenUtil = new JwtTokenUtil(SECRET, cacheSize, new SimpleMeterRegistry());
+    ReflectionTestUtils.setField(jwtTokenUtil, "tokenValidity", 3600);
+    return jwtTokenUtil;
+  }
+
+  @Benchmark
+  public String generateToken() {
+    return uncached.generateToken(userId, Role.ROLE_BUYER);
+  }
+
+  @Benchmark
+  public String parseToken() {
+    return uncached.extractUserId(token);
+  }
+
+  @Benchmark
+  public String parseCachedToken() {
+    return cached.extractUserId(token);
+  }
+}
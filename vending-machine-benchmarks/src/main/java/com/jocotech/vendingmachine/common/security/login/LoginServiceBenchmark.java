@@ -0,0 +1,67 @@
+package com.jocotech.vendingmachine.common.security.login;
+
+import com.jocotech.vendingmachine.common.metrics.OperationMetrics;
+import com.jocotech.vendingmachine.common.persistence.ConflictRetry;
+import com.jocotech.vendingmachine.common.security.JwtTokenUtil;
+import com.jocotech.vendingmachine.common.security.PasswordHasher;
+import com.jocotech.vendingmachine.common.security.PrincipalCache;
+import com.jocotech.vendingmachine.user.InMemoryUserRepository;
+import com.jocotech.vendingmachine.user.Role;
+import com.jocotech.vendingmachine.user.User;
+import com.jocotech.vendingmachine.user.UserService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Login, dominated by the BCrypt match of the password.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoginServiceBenchmark {
+  private static final String SECRET = "Mary had a little lamb, Its fleece was white as snow; And everywhere that Mary went";
+  private static final String USERNAME = "buyer";
+  private static final String PASSWORD = "password";
+
+  private LoginService loginService;
+  private LoginController.LoginRequest request;
+
+  @Setup
+  public void setup() {
+    var meterRegistry = new SimpleMeterRegistry();
+    var passwordHasher = new PasswordHasher(new BCryptPasswordEncoder(), 4, 100, meterRegistry);
+    var conflictRetry = new ConflictRetry(3, 20, meterRegistry);
+    var userRepository = new InMemoryUserRepository();
+    var userService = new UserService(userRepository, passwordHasher, new PrincipalCache(100, 60, meterRegistry),
+        conflictRetry, Optional.empty(), Optional.empty());
+    var jwtTokenUtil = new JwtTokenUtil(SECRET, 0, meterRegistry);
+    ReflectionTestUtils.setField(jwtTokenUtil, "tokenValidity", 3600);
+    ReflectionTestUtils.setField(jwtTokenUtil, "refreshTokenValidity", 3600);
+    loginService = new LoginService(userService, jwtTokenUtil, passwordHasher, new OperationMetrics(meterRegistry));
+    userService.createUser(User.builder().username(USERNAME).password(PASSWORD).role(Role.ROLE_BUYER).build())
+        .block();
+    request = new LoginController.LoginRequest(USERNAME, PASSWORD);
+  }
+
+  @Benchmark
+  public LoginController.LoginResponse login() {
+    return loginService.login(request).block();
+  }
+}
@@ -0,0 +1,123 @@
+package com.jocotech.vendingmachine.machine;
+
+import com.jocotech.vendingmachine.common.metrics.OperationMetrics;
+import com.jocotech.vendingmachine.common.persistence.ConflictRetry;
+import com.jocotech.vendingmachine.common.security.JwtTokenUtil;
+import com.jocotech.vendingmachine.common.security.PasswordHasher;
+import com.jocotech.vendingmachine.common.security.PrincipalCache;
+import com.jocotech.vendingmachine.common.security.login.LoginService;
+import com.jocotech.vendingmachine.product.InMemoryProductRepository;
+import com.jocotech.vendingmachine.product.Product;
+import com.jocotech.vendingmachine.product.ProductCache;
+import com.jocotech.vendingmachine.product.ProductEvents;
+import com.jocotech.vendingmachine.product.ProductService;
+import com.jocotech.vendingmachine.user.InMemoryUserRepository;
+import com.jocotech.vendingmachine.user.Role;
+import com.jocotech.vendingmachine.user.User;
+import com.jocotech.vendingmachine.user.UserService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+import reactor.util.context.Context;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The vending operations against the in-memory repositories, so only the service layer is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VendingMachineServiceBenchmark {
+  private static final String SECRET = "Mary had a little lamb, Its fleece was white as snow; And everywhere that Mary went";
+
+  private InMemoryUserRepository userRepository;
+  private InMemoryProductRepository productRepository;
+  private VendingMachineService vendingMachineService;
+  private Context authentication;
+  private UUID userId;
+  private UUID productId;
+  private UUID otherProductId;
+  private List<VendingMachineController.PurchaseRequest> checkoutItems;
+
+  @Setup
+  public void setup() {
+    var meterRegistry = new SimpleMeterRegistry();
+    var passwordHasher = new PasswordHasher(new BCryptPasswordEncoder(), 4, 100, meterRegistry);
+    var conflictRetry = new ConflictRetry(3, 20, meterRegistry);
+    userRepository = new InMemoryUserRepository();
+    productRepository = new InMemoryProductRepository();
+    var userService = new UserService(userRepository, passwordHasher, new PrincipalCache(100, 60, meterRegistry),
+        conflictRetry, Optional.empty(), Optional.empty());
+    var operationMetrics = new OperationMetrics(meterRegistry);
+    var loginService = new LoginService(userService, new JwtTokenUtil(SECRET, 0, meterRegistry), passwordHasher,
+        operationMetrics);
+    var productService = new ProductService(productRepository, loginService,
+        new ProductCache(productRepository, meterRegistry), conflictRetry, new ProductEvents(meterRegistry),
+        Optional.empty());
+    vendingMachineService = new VendingMachineService(loginService, userService, productService, operationMetrics);
+
+    userId = userRepository.save(User.builder().username("buyer").role(Role.ROLE_BUYER).build()).block().getId();
+    productId = productRepository.save(Product.builder().sellerId(UUID.randomUUID()).productName("product").cost(5).build())
+        .block().getId();
+    otherProductId = productRepository.save(Product.builder().sellerId(UUID.randomUUID()).productName("other")
+        .cost(10).build()).block().getId();
+    checkoutItems = List.of(new VendingMachineController.PurchaseRequest(productId.toString(), 1),
+        new VendingMachineController.PurchaseRequest(otherProductId.toString(), 2));
+    authentication = ReactiveSecurityContextHolder.withAuthentication(
+        new PreAuthenticatedAuthenticationToken(userId, null, List.of(new SimpleGrantedAuthority(Role.ROLE_BUYER.name()))));
+  }
+
+  // plenty of funds and stock, so no iteration runs out of them
+  @Setup(Level.Iteration)
+  public void refill() {
+    userRepository.findById(userId)
+        .flatMap(user -> userRepository.save(user.toBuilder().deposit(Integer.MAX_VALUE / 2).build()))
+        .block();
+    for (var id : List.of(productId, otherProductId)) {
+      productRepository.findById(id)
+          .flatMap(product -> productRepository.save(product.toBuilder().amountAvailable(Integer.MAX_VALUE / 2).build()))
+          .block();
+    }
+  }
+
+  @Benchmark
+  public Integer deposit() {
+    return vendingMachineService.deposit(5)
+        .contextWrite(authentication)
+        .block();
+  }
+
+  @Benchmark
+  public VendingMachineController.PurchaseResponse buy() {
+    return vendingMachineService.buy(productId.toString(), 1)
+        .contextWrite(authentication)
+        .block();
+  }
+
+  @Benchmark
+  public VendingMachineController.CheckoutResponse checkout() {
+    return vendingMachineService.checkout(checkoutItems)
+        .contextWrite(authentication)
+        .block();
+  }
+}